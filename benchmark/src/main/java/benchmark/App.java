@@ -0,0 +1,88 @@
+package benchmark;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+//Main and the generators live in the default package, which code in a named package can't import,
+//and JMH only generates benchmarks for classes in a named package. So the benchmarks reach the
+//application through these reflective calls. Every stage takes milliseconds or more, so the cost
+//of Method.invoke doesn't show in the results.
+final class App {
+	static final String POKEMON = "pokemon";
+	static final String CUSTOMER_SATISFACTION = "customer";
+	
+	private static final long SEED = 7641;
+	
+	private App() {
+	}
+	
+	//Writes the dataset's training and test .arff files into data/. The size is in customer
+	//entries; the pokemon dataset is sized to roughly match, at size / 34 entries per pokemon.
+	static void generate(String dataSet, int size, boolean parallel) throws Exception {
+		new File("data").mkdirs();
+		String generator = dataSet.equals(POKEMON) ? "PokemonARFFGenerator" : "CustomerSatisfactionARFFGenerator";
+		int entries = dataSet.equals(POKEMON) ? Math.max(1, size / 34) : size;
+		if (parallel)
+			invoke(method(generator, "generateFileParallel", int.class, long.class, boolean.class), entries, SEED, false);
+		else
+			invoke(method(generator, "generateFile", int.class, boolean.class), entries, false);
+	}
+	
+	//Loads the dataset's training and test files the way Main does, class attribute last.
+	static Instances[] load(String dataSet) throws Exception {
+		String prefix = dataSet.equals(POKEMON) ? "POKEMON_" : "CUSTOMER_SATISFACTION_";
+		Method loadDataSet = method("Main", "loadDataSet", String.class);
+		Instances[] data = {
+			(Instances) invoke(loadDataSet, constant(prefix + "TRAINING_DATA_SET")),
+			(Instances) invoke(loadDataSet, constant(prefix + "TEST_DATA_SET"))
+		};
+		for (Instances instances : data)
+			instances.setClassIndex(instances.numAttributes() - 1);
+		return data;
+	}
+	
+	//A new, untrained classifier configured as in Main.
+	static Classifier newClassifier(String name, String dataSet) throws Exception {
+		String factory;
+		switch (name) {
+		case "J48": factory = "createDecisionTree"; break;
+		case "HistogramTree": factory = "createHistogramTree"; break;
+		case "MultilayerPerceptron": factory = "createNeuralNetwork"; break;
+		case "MiniBatchMLP": factory = "createMiniBatchNeuralNetwork"; break;
+		case "IBk": factory = "createKNN"; break;
+		case "KDTreeKNN": factory = "createKDTreeKNN"; break;
+		case "AdaBoostM1": factory = "createBoosting"; break;
+		case "SMO":
+			factory = dataSet.equals(POKEMON) ? "createPokemonSVM" : "createCustomerSatisfactionSVM";
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown classifier " + name);
+		}
+		return (Classifier) invoke(method("Main", factory));
+	}
+	
+	private static String constant(String name) throws ReflectiveOperationException {
+		return (String) Class.forName("Main").getField(name).get(null);
+	}
+	
+	private static Method method(String className, String methodName, Class<?>... parameterTypes)
+	throws ReflectiveOperationException {
+		Method method = Class.forName(className).getDeclaredMethod(methodName, parameterTypes);
+		method.setAccessible(true);
+		return method;
+	}
+	
+	private static Object invoke(Method method, Object... args) throws Exception {
+		try {
+			return method.invoke(null, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+}
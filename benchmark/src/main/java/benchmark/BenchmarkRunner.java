@@ -0,0 +1,22 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+//Runs the benchmarks picked by the usual JMH command line (all of them by default) with the GC
+//profiler on, so every result comes with its allocation rate (gc.alloc.rate, counted over all
+//threads, which matters for the parallel generation and classifiers) next to the throughput.
+//
+//Usage: java -jar target/benchmarks.jar [JMH options], e.g. ClassifierBenchmark -p size=10000
+public class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+//Building each of Main's classifiers on a dataset, and evaluating the trained classifier on the
+//test set. The data is generated and loaded, and the classifier evaluateModel scores is trained,
+//once per trial, outside the measurements.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClassifierBenchmark {
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+	
+	@Param({ App.POKEMON, App.CUSTOMER_SATISFACTION })
+	public String dataSet;
+	
+	@Param({ "J48", "HistogramTree", "MultilayerPerceptron", "MiniBatchMLP", "IBk", "KDTreeKNN", "AdaBoostM1", "SMO" })
+	public String classifier;
+	
+	private Instances training, test;
+	private Classifier trained;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		App.generate(dataSet, size, true);
+		Instances[] data = App.load(dataSet);
+		training = data[0];
+		test = data[1];
+		
+		trained = App.newClassifier(classifier, dataSet);
+		trained.buildClassifier(training);
+	}
+	
+	@Benchmark
+	public Classifier buildClassifier() throws Exception {
+		Classifier built = App.newClassifier(classifier, dataSet);
+		built.buildClassifier(training);
+		return built;
+	}
+	
+	@Benchmark
+	public Evaluation evaluateModel() throws Exception {
+		Evaluation evaluation = new Evaluation(training);
+		evaluation.evaluateModel(trained, test);
+		return evaluation;
+	}
+}
@@ -0,0 +1,40 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Writing both .arff files of each dataset, with generateFile or, with parallel set,
+//generateFileParallel across all cores.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GenerationBenchmark {
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+	
+	@Param({ "false", "true" })
+	public boolean parallel;
+	
+	@Benchmark
+	public void generateFilePokemon() throws Exception {
+		App.generate(App.POKEMON, size, parallel);
+	}
+	
+	@Benchmark
+	public void generateFileCustomerSatisfaction() throws Exception {
+		App.generate(App.CUSTOMER_SATISFACTION, size, parallel);
+	}
+}
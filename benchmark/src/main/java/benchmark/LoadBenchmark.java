@@ -0,0 +1,44 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Instances;
+
+//Loading a dataset's training and test files as Main's loadInstances does, through
+//Main.loadDataSet (so USE_BINARY_CACHE applies).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+	
+	@Param({ App.POKEMON, App.CUSTOMER_SATISFACTION })
+	public String dataSet;
+	
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		App.generate(dataSet, size, true);
+	}
+	
+	@Benchmark
+	public Instances[] loadInstances() throws Exception {
+		return App.load(dataSet);
+	}
+}
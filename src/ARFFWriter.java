@@ -0,0 +1,132 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+//Writes ARFF rows without creating garbage per row. Values are formatted straight into one
+//reusable byte buffer, which is flushed to the file through a FileChannel when it fills up.
+//Nominal values should be encoded once up front with encode() and passed in as bytes.
+public class ARFFWriter implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final byte[] LINE_SEPARATOR = encode(System.lineSeparator());
+	private static final int MAX_NUMBER_LENGTH = 24;
+	
+	private final FileOutputStream outputStream;
+	private final FileChannel channel;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+	private final byte[] digits = new byte[MAX_NUMBER_LENGTH];
+	private int position;
+	
+	public ARFFWriter(File file) throws IOException {
+		outputStream = new FileOutputStream(file);
+		channel = outputStream.getChannel();
+	}
+	
+	public static byte[] encode(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	//For header lines; allocates, so keep it out of the per row path.
+	public void writeLine(String line) throws IOException {
+		write(encode(line));
+		newLine();
+	}
+	
+	public void write(byte[] bytes) throws IOException {
+		if (bytes.length > BUFFER_SIZE - position) {
+			flush();
+			if (bytes.length > BUFFER_SIZE) {
+				writeFully(ByteBuffer.wrap(bytes));
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+	
+	public void write(char c) throws IOException {
+		if (position == BUFFER_SIZE)
+			flush();
+		buffer[position++] = (byte) c;
+	}
+	
+	public void newLine() throws IOException {
+		write(LINE_SEPARATOR);
+	}
+	
+	public void write(long value) throws IOException {
+		if (BUFFER_SIZE - position < MAX_NUMBER_LENGTH)
+			flush();
+		if (value < 0) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+		writeDigits(value, 1);
+	}
+	
+	//Writes scaled / 10^decimals in fixed point, dropping trailing zeros after the decimal point
+	//but keeping at least one digit, the same way Float.toString prints small values (e.g. 70
+	//with 2 decimals is "0.7" and 10000 is "100.0").
+	public void writeFixed(long scaled, int decimals) throws IOException {
+		if (BUFFER_SIZE - position < MAX_NUMBER_LENGTH + 1)
+			flush();
+		if (scaled < 0) {
+			buffer[position++] = '-';
+			scaled = -scaled;
+		}
+		
+		long divisor = 1;
+		for (int i = 0; i < decimals; i++)
+			divisor *= 10;
+		long fraction = scaled % divisor;
+		writeDigits(scaled / divisor, 1);
+		buffer[position++] = '.';
+		
+		int fractionDigits = decimals;
+		while (fractionDigits > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			fractionDigits--;
+		}
+		writeDigits(fraction, fractionDigits);
+	}
+	
+	public void flush() throws IOException {
+		byteBuffer.limit(position);
+		byteBuffer.position(0);
+		writeFully(byteBuffer);
+		byteBuffer.clear();
+		position = 0;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			outputStream.close();
+		}
+	}
+	
+	//Writes a non negative value, zero padded to at least minDigits digits.
+	private void writeDigits(long value, int minDigits) {
+		int length = 0;
+		do {
+			digits[length++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (length < minDigits)
+			digits[length++] = '0';
+		
+		while (length > 0)
+			buffer[position++] = digits[--length];
+	}
+	
+	private void writeFully(ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+	}
+}
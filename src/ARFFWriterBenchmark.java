@@ -0,0 +1,133 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Random;
+
+//Compares the old way the generators wrote rows (String concatenation through a BufferedWriter,
+//rounding through BigDecimal) with ARFFWriter. Prints rows per second and bytes allocated per
+//row for both row formats. The random values are drawn up front so only the writing is measured.
+public class ARFFWriterBenchmark {
+	private static final int ROWS = 2000000;
+	private static final int WARMUP_RUNS = 3;
+	private static final int MEASURED_RUNS = 5;
+	
+	private static final String[] GENDERS = { "male", "female" };
+	private static final String[] RACES = { "asian", "black", "latino", "white" };
+	private static final String[] SATISFACTION_LEVELS = { "very_unsatisfied", "unsatisfied",
+		"indifferent", "satisfied", "very_satisfied" };
+	
+	private interface RowWriter {
+		void write(File file) throws IOException;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		Random rand = new Random(7641);
+		final int[] genders = new int[ROWS], ages = new int[ROWS], incomes = new int[ROWS];
+		final int[] races = new int[ROWS], satisfactionLevels = new int[ROWS];
+		final float[] heights = new float[ROWS], weights = new float[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			genders[i] = rand.nextInt(2);
+			ages[i] = rand.nextInt(100 - 18) + 18;
+			incomes[i] = (rand.nextInt(250 - 25) + 25) * 1000;
+			races[i] = rand.nextInt(4);
+			satisfactionLevels[i] = rand.nextInt(5);
+			heights[i] = (float) (1.0 + rand.nextGaussian() * 0.1);
+			weights[i] = (float) (30.0 + rand.nextGaussian() * 3.0);
+		}
+		
+		final byte[][] genderBytes = encode(GENDERS);
+		final byte[][] raceBytes = encode(RACES);
+		final byte[][] satisfactionLevelBytes = encode(SATISFACTION_LEVELS);
+		final byte[] type = ARFFWriter.encode("grass");
+		final byte[] name = ARFFWriter.encode("Ivysaur");
+		
+		File file = File.createTempFile("arff-writer-benchmark", ".arff");
+		file.deleteOnExit();
+		
+		measure("customer rows, BufferedWriter", file, f -> {
+			BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f)));
+			for (int i = 0; i < ROWS; i++) {
+				bufferedWriter.write(GENDERS[genders[i]] + "," + ages[i] + "," + incomes[i] + ","
+						+ RACES[races[i]] + "," + SATISFACTION_LEVELS[satisfactionLevels[i]]);
+				bufferedWriter.newLine();
+			}
+			bufferedWriter.close();
+		});
+		measure("customer rows, ARFFWriter", file, f -> {
+			ARFFWriter writer = new ARFFWriter(f);
+			for (int i = 0; i < ROWS; i++) {
+				writer.write(genderBytes[genders[i]]);
+				writer.write(',');
+				writer.write(ages[i]);
+				writer.write(',');
+				writer.write(incomes[i]);
+				writer.write(',');
+				writer.write(raceBytes[races[i]]);
+				writer.write(',');
+				writer.write(satisfactionLevelBytes[satisfactionLevels[i]]);
+				writer.newLine();
+			}
+			writer.close();
+		});
+		
+		measure("pokemon rows, BufferedWriter + BigDecimal", file, f -> {
+			BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f)));
+			for (int i = 0; i < ROWS; i++) {
+				bufferedWriter.write("grass," + round(heights[i], 2) + "," + round(weights[i], 2) + ",Ivysaur");
+				bufferedWriter.newLine();
+			}
+			bufferedWriter.close();
+		});
+		measure("pokemon rows, ARFFWriter", file, f -> {
+			ARFFWriter writer = new ARFFWriter(f);
+			for (int i = 0; i < ROWS; i++) {
+				writer.write(type);
+				writer.write(',');
+				writer.writeFixed(PokemonARFFGenerator.hundredths(heights[i]), 2);
+				writer.write(',');
+				writer.writeFixed(PokemonARFFGenerator.hundredths(weights[i]), 2);
+				writer.write(',');
+				writer.write(name);
+				writer.newLine();
+			}
+			writer.close();
+		});
+	}
+	
+	private static void measure(String name, File file, RowWriter rowWriter) throws IOException {
+		for (int i = 0; i < WARMUP_RUNS; i++)
+			rowWriter.write(file);
+		
+		com.sun.management.ThreadMXBean threadBean =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		long startTime = System.nanoTime();
+		for (int i = 0; i < MEASURED_RUNS; i++)
+			rowWriter.write(file);
+		double seconds = (System.nanoTime() - startTime) / 1000000000.0;
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		
+		long rows = (long) ROWS * MEASURED_RUNS;
+		System.out.println(String.format("%-42s %14.0f rows/s %10.1f bytes allocated/row",
+				name, rows / seconds, (double) allocated / rows));
+	}
+	
+	//The rounding the generators used before ARFFWriter.
+	private static float round(float d, int decimalPlace) {
+		BigDecimal bd = new BigDecimal(Float.toString(d));
+		bd = bd.setScale(decimalPlace, BigDecimal.ROUND_HALF_UP);
+		return bd.floatValue();
+	}
+	
+	private static byte[][] encode(String[] values) {
+		byte[][] encoded = new byte[values.length][];
+		for (int i = 0; i < values.length; i++)
+			encoded[i] = ARFFWriter.encode(values[i]);
+		return encoded;
+	}
+}
@@ -0,0 +1,38 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Instances;
+
+//Writes datasets that were generated in memory out to ARFF files on a background thread, so 
+//keeping a copy on disk does not hold up training.
+public class AsyncARFFWriter {
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "arff-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	//Queues the dataset to be written to the file. The returned future finishes once the file 
+	//has been closed. The dataset must not be modified until then.
+	public static Future<?> write(final Instances data, final File file) {
+		return executor.submit(() -> {
+			BufferedWriter bufferedWriter = new BufferedWriter(
+					new OutputStreamWriter(new FileOutputStream(file)));
+			try {
+				bufferedWriter.write(new Instances(data, 0).toString());
+				for (int i = 0; i < data.numInstances(); i++) {
+					bufferedWriter.write(data.instance(i).toString());
+					bufferedWriter.newLine();
+				}
+			} finally {
+				bufferedWriter.close();
+			}
+			return null;
+		});
+	}
+}
@@ -0,0 +1,206 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+//Compact binary, column oriented copy of an .arff file, kept next to it as <name>.arff.bin.
+//Nominal attributes are stored as one byte codes and REAL attributes as float columns when
+//every value fits in a float exactly, or double columns otherwise. The columns are read back
+//through memory mapped buffers, which skips the ARFF tokenizer completely.
+//
+//Layout (big endian): magic, version, header length, header (the ARFF header as UTF-8),
+//number of instances, number of attributes, one column type byte per attribute, then each
+//column in attribute order.
+public class BinaryDatasetCache {
+	private static final int MAGIC = 0x41524642; //"ARFB"
+	private static final int VERSION = 1;
+	
+	private static final byte BYTE_COLUMN = 0;
+	private static final byte FLOAT_COLUMN = 1;
+	private static final byte DOUBLE_COLUMN = 2;
+	
+	private static final byte MISSING_CODE = -1;
+	
+	public static File cacheFileFor(File arff) {
+		return new File(arff.getPath() + ".bin");
+	}
+	
+	//The cache of the data a seeded generator writes to the .arff file for the given key (its 
+	//seed and sizes). Unlike cacheFileFor, it stays valid when the .arff file is regenerated 
+	//with other settings, so a run can skip generating its data altogether.
+	public static File cacheFileFor(File arff, String key) {
+		return new File(arff.getPath() + "." + key + ".bin");
+	}
+	
+	//Loads the dataset from the binary cache if it is newer than the .arff file. Otherwise parses
+	//the .arff file and writes a fresh cache for next time. Only pays off for .arff files that 
+	//are read more often than they are rewritten.
+	public static Instances load(File arff) throws IOException {
+		File cache = cacheFileFor(arff);
+		if (cache.exists() && cache.lastModified() > arff.lastModified()) {
+			Instances data = readIfValid(cache);
+			if (data != null)
+				return data;
+		}
+		
+		Instances data;
+		BufferedReader reader = new BufferedReader(new FileReader(arff));
+		try {
+			data = new Instances(reader);
+		} finally {
+			reader.close();
+		}
+		write(data, cache);
+		return data;
+	}
+	
+	public static void write(Instances data, File cache) throws IOException {
+		int numInstances = data.numInstances();
+		int numAttributes = data.numAttributes();
+		byte[] header = new Instances(data, 0).toString().getBytes(StandardCharsets.UTF_8);
+		
+		byte[] columnTypes = new byte[numAttributes];
+		for (int a = 0; a < numAttributes; a++)
+			columnTypes[a] = columnType(data, a);
+		
+		File temp = new File(cache.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(header.length);
+			out.write(header);
+			out.writeInt(numInstances);
+			out.writeInt(numAttributes);
+			out.write(columnTypes);
+			
+			for (int a = 0; a < numAttributes; a++) {
+				for (int i = 0; i < numInstances; i++) {
+					double value = data.instance(i).value(a);
+					if (columnTypes[a] == BYTE_COLUMN)
+						out.writeByte(Utils.isMissingValue(value) ? MISSING_CODE : (int) value);
+					else if (columnTypes[a] == FLOAT_COLUMN)
+						out.writeFloat((float) value);
+					else
+						out.writeDouble(value);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		
+		if (!temp.renameTo(cache)) {
+			cache.delete();
+			if (!temp.renameTo(cache))
+				throw new IOException("Could not write " + cache.getName());
+		}
+	}
+	
+	//Reads the cache, or returns null if it is missing, truncated or otherwise corrupt, so the 
+	//caller can rebuild it.
+	public static Instances readIfValid(File cache) {
+		if (!cache.exists())
+			return null;
+		try {
+			return read(cache);
+		} catch (IOException | BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	public static Instances read(File cache) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(cache, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, 12);
+			if (prefix.getInt() != MAGIC || prefix.getInt() != VERSION)
+				throw new IOException(cache.getName() + " is not a binary dataset cache");
+			int headerLength = prefix.getInt();
+			
+			MappedByteBuffer metadata = channel.map(FileChannel.MapMode.READ_ONLY, 12, headerLength + 8);
+			byte[] header = new byte[headerLength];
+			metadata.get(header);
+			int numInstances = metadata.getInt();
+			int numAttributes = metadata.getInt();
+			
+			long position = 12 + headerLength + 8;
+			byte[] columnTypes = new byte[numAttributes];
+			channel.map(FileChannel.MapMode.READ_ONLY, position, numAttributes).get(columnTypes);
+			position += numAttributes;
+			
+			Instances data = new Instances(new StringReader(new String(header, StandardCharsets.UTF_8)));
+			if (data.numAttributes() != numAttributes)
+				throw new IOException(cache.getName() + " has a header that does not match its columns");
+			
+			//Each column is mapped on its own so a dataset is not limited to one 2GB mapping.
+			double[][] rows = new double[numInstances][numAttributes];
+			for (int a = 0; a < numAttributes; a++) {
+				long columnSize = (long) numInstances * columnWidth(columnTypes[a]);
+				MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY, position, columnSize);
+				position += columnSize;
+				
+				if (columnTypes[a] == BYTE_COLUMN) {
+					for (int i = 0; i < numInstances; i++) {
+						byte code = column.get();
+						rows[i][a] = code == MISSING_CODE ? Utils.missingValue() : code;
+					}
+				} else if (columnTypes[a] == FLOAT_COLUMN) {
+					for (int i = 0; i < numInstances; i++)
+						rows[i][a] = column.getFloat();
+				} else {
+					for (int i = 0; i < numInstances; i++)
+						rows[i][a] = column.getDouble();
+				}
+			}
+			
+			Instances result = new Instances(data, numInstances);
+			for (double[] row : rows)
+				result.add(new DenseInstance(1.0, row));
+			return result;
+		} finally {
+			file.close();
+		}
+	}
+	
+	//Nominal attributes with few enough values get byte codes. REAL attributes get floats if no
+	//precision would be lost, which holds for the integer valued age and income.
+	private static byte columnType(Instances data, int attributeIndex) {
+		Attribute attribute = data.attribute(attributeIndex);
+		if (attribute.isNominal() && attribute.numValues() < 128)
+			return BYTE_COLUMN;
+		
+		if (attribute.isNumeric()) {
+			for (int i = 0; i < data.numInstances(); i++) {
+				double value = data.instance(i).value(attributeIndex);
+				if (!Utils.isMissingValue(value) && (double) (float) value != value)
+					return DOUBLE_COLUMN;
+			}
+			return FLOAT_COLUMN;
+		}
+		return DOUBLE_COLUMN;
+	}
+	
+	private static int columnWidth(byte columnType) {
+		if (columnType == BYTE_COLUMN)
+			return 1;
+		if (columnType == FLOAT_COLUMN)
+			return 4;
+		return 8;
+	}
+}
@@ -0,0 +1,77 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import weka.core.Instances;
+
+//Compares loading the generated datasets through Instances(Reader) against the memory mapped 
+//binary cache. Generate the data first (run Main or the generators). Prints the average load 
+//time, the bytes allocated while loading and the heap the loaded dataset keeps alive.
+public class BinaryDatasetCacheBenchmark {
+	private static final int WARMUP_RUNS = 3;
+	private static final int MEASURED_RUNS = 10;
+	
+	private interface Loader {
+		Instances load(File file) throws IOException;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		String[] dataSets = { Main.POKEMON_TRAINING_DATA_SET, Main.POKEMON_TEST_DATA_SET, 
+				Main.CUSTOMER_SATISFACTION_TRAINING_DATA_SET, Main.CUSTOMER_SATISFACTION_TEST_DATA_SET };
+		
+		for (String dataSet : dataSets) {
+			File arff = new File("data" + File.separator + dataSet);
+			BinaryDatasetCache.write(readArff(arff), BinaryDatasetCache.cacheFileFor(arff));
+			
+			System.out.println(dataSet + " (" + arff.length() + " bytes as ARFF, " 
+					+ BinaryDatasetCache.cacheFileFor(arff).length() + " bytes as binary)");
+			measure("  Instances(Reader)", arff, BinaryDatasetCacheBenchmark::readArff);
+			measure("  binary cache     ", arff, file -> BinaryDatasetCache.read(BinaryDatasetCache.cacheFileFor(file)));
+		}
+	}
+	
+	private static Instances readArff(File arff) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(arff));
+		try {
+			return new Instances(reader);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	private static void measure(String name, File arff, Loader loader) throws IOException {
+		for (int i = 0; i < WARMUP_RUNS; i++)
+			loader.load(arff);
+		
+		com.sun.management.ThreadMXBean threadBean = 
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		
+		long totalTime = 0;
+		long totalAllocated = 0;
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+			long startTime = System.nanoTime();
+			loader.load(arff);
+			totalTime += System.nanoTime() - startTime;
+			totalAllocated += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		}
+		
+		long heapBefore = usedHeap();
+		Instances retained = loader.load(arff);
+		long heapAfter = usedHeap();
+		
+		System.out.println(name + ": " + (totalTime / MEASURED_RUNS / 1000000.0) + " ms, " 
+				+ (totalAllocated / MEASURED_RUNS) + " bytes allocated, " 
+				+ (heapAfter - heapBefore) + " bytes retained for " + retained.numInstances() + " instances");
+	}
+	
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
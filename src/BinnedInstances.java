@@ -0,0 +1,177 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+//Training data for HistogramTree and HistogramForest with every attribute but the class turned
+//into small bin numbers once, up front, so growing a tree never sorts a numeric attribute again.
+//A nominal attribute's bins are its values. A numeric attribute gets at most maxBins bins cut at
+//quantiles of a sample of its values (or between its distinct values, when it has few), and bin
+//b holds the values above edges[b - 1] and up to edges[b]. The last bin of every attribute,
+//numBins[a], holds the missing values. Rows without a class are dropped.
+public class BinnedInstances {
+	public static final int MAX_BINS = 255; //Bin numbers, the missing value bin included, must fit in a byte.
+	private static final int SAMPLE_SIZE = 100000; //Values sampled per numeric attribute to place its bins.
+	
+	final int numAttributes; //Every attribute but the class.
+	final int[] attributeIndices;
+	final boolean[] nominal;
+	final int[] numBins;
+	final double[][] edges; //Only for numeric attributes.
+	final byte[][] bins; //bins[a][row], read as (bins[a][row] & 0xFF).
+	final int numRows;
+	final int numClasses;
+	final int[] classes;
+	final double[] weights;
+	
+	//A node's histogram is one flat array holding, for every attribute and every bin (the missing
+	//value bin included), the weight of each class: cell ((histogramStart[a] + bin) * numClasses +
+	//class).
+	final int[] histogramStart;
+	final int histogramSize;
+	
+	public BinnedInstances(Instances data, int maxBins, long seed) {
+		if (maxBins < 2 || maxBins > MAX_BINS)
+			throw new IllegalArgumentException("The number of bins must be between 2 and " + MAX_BINS + ".");
+		int classIndex = data.classIndex();
+		if (classIndex < 0)
+			throw new IllegalArgumentException("The class attribute is not set.");
+		if (!data.classAttribute().isNominal())
+			throw new IllegalArgumentException("Only nominal classes are supported.");
+		
+		numAttributes = data.numAttributes() - 1;
+		attributeIndices = new int[numAttributes];
+		nominal = new boolean[numAttributes];
+		for (int a = 0, d = 0; a < data.numAttributes(); a++) {
+			if (a != classIndex) {
+				attributeIndices[d] = a;
+				nominal[d] = data.attribute(a).isNominal();
+				d++;
+			}
+		}
+		numClasses = data.numClasses();
+		
+		int rows = 0;
+		for (Instance instance : data) {
+			if (!instance.classIsMissing())
+				rows++;
+		}
+		numRows = rows;
+		classes = new int[numRows];
+		weights = new double[numRows];
+		final double[][] columns = new double[numAttributes][numRows];
+		int row = 0;
+		for (Instance instance : data) {
+			if (instance.classIsMissing())
+				continue;
+			classes[row] = (int) instance.classValue();
+			weights[row] = instance.weight();
+			for (int a = 0; a < numAttributes; a++)
+				columns[a][row] = instance.value(attributeIndices[a]);
+			row++;
+		}
+		
+		numBins = new int[numAttributes];
+		edges = new double[numAttributes][];
+		bins = new byte[numAttributes][];
+		final SplittableRandom[] randoms = new SplittableRandom[numAttributes];
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int a = 0; a < numAttributes; a++) {
+			randoms[a] = random.split();
+			if (nominal[a]) {
+				Attribute attribute = data.attribute(attributeIndices[a]);
+				if (attribute.numValues() > maxBins)
+					throw new IllegalArgumentException(attribute.name() + " has more than " + maxBins + " values.");
+				numBins[a] = attribute.numValues();
+			}
+		}
+		IntStream.range(0, numAttributes).parallel().forEach(a -> binColumn(a, columns[a], maxBins, randoms[a]));
+		
+		histogramStart = new int[numAttributes];
+		int size = 0;
+		for (int a = 0; a < numAttributes; a++) {
+			histogramStart[a] = size;
+			size += numBins[a] + 1;
+		}
+		histogramSize = size * numClasses;
+	}
+	
+	//The bin of a numeric value: the first bin whose edge is at or above it.
+	int bin(int attribute, double value) {
+		int index = Arrays.binarySearch(edges[attribute], value);
+		return index >= 0 ? index : -index - 1;
+	}
+	
+	private void binColumn(int a, double[] column, int maxBins, SplittableRandom random) {
+		if (!nominal[a])
+			placeEdges(a, column, maxBins, random);
+		byte[] columnBins = new byte[numRows];
+		for (int row = 0; row < numRows; row++) {
+			double value = column[row];
+			int bin;
+			if (Utils.isMissingValue(value))
+				bin = numBins[a];
+			else if (nominal[a])
+				bin = (int) value;
+			else
+				bin = bin(a, value);
+			columnBins[row] = (byte) bin;
+		}
+		bins[a] = columnBins;
+	}
+	
+	//Sorts a sample of the known values. With no more distinct values than bins, every value gets
+	//its own bin; otherwise the edges are at evenly spaced quantiles of the sample.
+	private void placeEdges(int a, double[] column, int maxBins, SplittableRandom random) {
+		int known = 0;
+		for (double value : column) {
+			if (!Utils.isMissingValue(value))
+				known++;
+		}
+		double[] sample = new double[Math.min(known, SAMPLE_SIZE)];
+		if (sample.length == known) {
+			int next = 0;
+			for (double value : column) {
+				if (!Utils.isMissingValue(value))
+					sample[next++] = value;
+			}
+		} else {
+			for (int i = 0; i < sample.length; ) {
+				double value = column[random.nextInt(column.length)];
+				if (!Utils.isMissingValue(value))
+					sample[i++] = value;
+			}
+		}
+		Arrays.sort(sample);
+		
+		int distinct = 0;
+		for (int i = 0; i < sample.length; i++) {
+			if (i == 0 || sample[i] != sample[i - 1])
+				distinct++;
+		}
+		
+		double[] cuts;
+		int numCuts = 0;
+		if (distinct <= maxBins) {
+			cuts = new double[Math.max(0, distinct - 1)];
+			for (int i = 1; i < sample.length; i++) {
+				if (sample[i] != sample[i - 1])
+					cuts[numCuts++] = (sample[i - 1] + sample[i]) / 2;
+			}
+		} else {
+			cuts = new double[maxBins - 1];
+			for (int i = 1; i < maxBins; i++) {
+				double cut = sample[(int) ((long) i * sample.length / maxBins) - 1];
+				if (numCuts == 0 || cut > cuts[numCuts - 1])
+					cuts[numCuts++] = cut;
+			}
+			cuts = Arrays.copyOf(cuts, numCuts);
+		}
+		edges[a] = cuts;
+		numBins[a] = cuts.length + 1;
+	}
+}
@@ -0,0 +1,102 @@
+import java.util.Enumeration;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.BatchPredictor;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+
+//Wraps an untrained classifier so that buildClassifier first looks for an already trained copy
+//in a ModelCache, and only trains (and caches) a copy of it when there is none. The wrapped
+//classifier itself is never trained; it only supplies the options. Trained models from the
+//cache are shared with every other wrapper that hits the same key, so they are only used to
+//predict here and must not be retrained or updated through getClassifier().
+public class CachedClassifier extends AbstractClassifier {
+	private static final long serialVersionUID = 1L;
+	
+	private final transient ModelCache modelCache;
+	private final Classifier template;
+	private Classifier classifier;
+	
+	public CachedClassifier(Classifier classifier, ModelCache modelCache) {
+		this.template = classifier;
+		this.classifier = classifier;
+		this.modelCache = modelCache;
+	}
+	
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		String key = ModelCache.key(template, data);
+		Classifier trained = modelCache.get(key);
+		if (trained == null) {
+			trained = AbstractClassifier.makeCopy(template);
+			trained.buildClassifier(data);
+			modelCache.put(key, trained);
+		}
+		classifier = trained;
+	}
+	
+	@Override
+	public double classifyInstance(Instance instance) throws Exception {
+		return classifier.classifyInstance(instance);
+	}
+	
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		return classifier.distributionForInstance(instance);
+	}
+	
+	@Override
+	public double[][] distributionsForInstances(Instances batch) throws Exception {
+		if (classifier instanceof BatchPredictor)
+			return ((BatchPredictor) classifier).distributionsForInstances(batch);
+		return super.distributionsForInstances(batch);
+	}
+	
+	@Override
+	public boolean implementsMoreEfficientBatchPrediction() {
+		return classifier instanceof BatchPredictor
+				&& ((BatchPredictor) classifier).implementsMoreEfficientBatchPrediction();
+	}
+	
+	@Override
+	public Capabilities getCapabilities() {
+		return template.getCapabilities();
+	}
+	
+	@Override
+	public Enumeration<Option> listOptions() {
+		if (template instanceof OptionHandler)
+			return ((OptionHandler) template).listOptions();
+		return super.listOptions();
+	}
+	
+	//Options go to the wrapped classifier, so they take effect from the next buildClassifier.
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		if (template instanceof OptionHandler)
+			((OptionHandler) template).setOptions(options);
+		else
+			super.setOptions(options);
+	}
+	
+	@Override
+	public String[] getOptions() {
+		if (template instanceof OptionHandler)
+			return ((OptionHandler) template).getOptions();
+		return super.getOptions();
+	}
+	
+	@Override
+	public String toString() {
+		return classifier.toString();
+	}
+	
+	//The trained model once buildClassifier has run, the untrained classifier before.
+	public Classifier getClassifier() {
+		return classifier;
+	}
+}
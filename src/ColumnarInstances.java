@@ -0,0 +1,452 @@
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+
+import weka.core.AbstractInstance;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+//Instances that keep their rows in one primitive array per attribute instead of one DenseInstance
+//(and double[]) per row: a byte per nominal value and a float per numeric value. A generated
+//customer takes 11 bytes instead of roughly 90, and a pass over one attribute reads consecutive
+//memory. Rows are handed out as short lived Instance views over the columns, made on demand, so
+//Weka classifiers run on this as on any Instances; setting a view's value writes through to the
+//columns. A view's weight is read when the view is made and AbstractInstance.setWeight can't be
+//overridden, so weights are changed with setWeight(row, weight) instead. Copies (new
+//Instances(data), Instance.copy()) are ordinary DenseInstances.
+//
+//Numeric values are rounded to floats, which is exact for the generated integers (age, income) but
+//not for every decimal (a height of 0.7 is stored as 0.699999988). Nominal attributes can have at
+//most 255 values. Adding, removing, swapping and randomizing rows are supported; sorting,
+//stratifying, inserting rows and changing attributes are not, so copy with new Instances(data)
+//first for those.
+public class ColumnarInstances extends Instances {
+	private static final long serialVersionUID = 1L;
+	private static final byte MISSING = (byte) 0xFF;
+	
+	private final boolean[] nominal;
+	private byte[][] nominalColumns; //Null for numeric attributes.
+	private float[][] numericColumns; //Null for nominal attributes.
+	private double[] weights; //Null while every weight is 1.
+	private int numRows, capacity;
+	
+	//An empty dataset with the header's attributes and class index, with room for capacity rows.
+	public ColumnarInstances(Instances header, int capacity) {
+		super(header, 0);
+		int numAttributes = header.numAttributes();
+		nominal = new boolean[numAttributes];
+		nominalColumns = new byte[numAttributes][];
+		numericColumns = new float[numAttributes][];
+		this.capacity = capacity;
+		for (int a = 0; a < numAttributes; a++) {
+			Attribute attribute = header.attribute(a);
+			if (attribute.isNominal()) {
+				if (attribute.numValues() > 255)
+					throw new IllegalArgumentException(attribute.name() + " has more than 255 values.");
+				nominal[a] = true;
+				nominalColumns[a] = new byte[capacity];
+			} else if (attribute.isNumeric()) {
+				numericColumns[a] = new float[capacity];
+			} else {
+				throw new IllegalArgumentException(attribute.name() + " is neither nominal nor numeric.");
+			}
+		}
+	}
+	
+	//A dataset of numRows rows, all values 0 and weights 1, for filling with setRow (from several
+	//threads at once, as long as they fill different rows).
+	public static ColumnarInstances create(Instances header, int numRows) {
+		ColumnarInstances data = new ColumnarInstances(header, numRows);
+		data.numRows = numRows;
+		return data;
+	}
+	
+	//Copies the rows of any dataset.
+	public static ColumnarInstances copyOf(Instances data) {
+		ColumnarInstances copy = new ColumnarInstances(data, data.numInstances());
+		for (int i = 0; i < data.numInstances(); i++)
+			copy.add(data.instance(i));
+		return copy;
+	}
+	
+	public double value(int row, int attribute) {
+		if (nominal[attribute]) {
+			byte code = nominalColumns[attribute][row];
+			return code == MISSING ? Utils.missingValue() : code & 0xFF;
+		}
+		return numericColumns[attribute][row];
+	}
+	
+	public void setValue(int row, int attribute, double value) {
+		if (nominal[attribute])
+			nominalColumns[attribute][row] = Utils.isMissingValue(value) ? MISSING : (byte) (int) value;
+		else
+			numericColumns[attribute][row] = (float) value;
+	}
+	
+	//Writes every attribute of the row, in attribute order.
+	public void setRow(int row, double[] values) {
+		for (int a = 0; a < values.length; a++)
+			setValue(row, a, values[a]);
+	}
+	
+	public double weight(int row) {
+		return weights == null ? 1 : weights[row];
+	}
+	
+	public void setWeight(int row, double weight) {
+		if (weights == null) {
+			if (weight == 1)
+				return;
+			weights = new double[capacity];
+			Arrays.fill(weights, 1);
+		}
+		weights[row] = weight;
+	}
+	
+	//Appends the row to the columns; unlike Instances.add, no copy of the instance is kept.
+	public void addRow(double weight, double[] values) {
+		ensureCapacity(numRows + 1);
+		setRow(numRows, values);
+		setWeight(numRows, weight);
+		numRows++;
+	}
+	
+	@Override
+	public boolean add(Instance instance) {
+		ensureCapacity(numRows + 1);
+		for (int a = 0; a < nominal.length; a++)
+			setValue(numRows, a, instance.value(a));
+		setWeight(numRows, instance.weight());
+		numRows++;
+		return true;
+	}
+	
+	@Override
+	public void add(int index, Instance instance) {
+		throw new UnsupportedOperationException("Rows can only be added at the end of columnar instances.");
+	}
+	
+	@Override
+	public Instance set(int index, Instance instance) {
+		checkRow(index);
+		Instance previous = (Instance) get(index).copy();
+		for (int a = 0; a < nominal.length; a++)
+			setValue(index, a, instance.value(a));
+		setWeight(index, instance.weight());
+		return previous;
+	}
+	
+	@Override
+	public int numInstances() {
+		return numRows;
+	}
+	
+	@Override
+	public int size() {
+		return numRows;
+	}
+	
+	@Override
+	public Instance get(int index) {
+		checkRow(index);
+		return new Row(this, index);
+	}
+	
+	@Override
+	public Instance instance(int index) {
+		return get(index);
+	}
+	
+	@Override
+	public Instance firstInstance() {
+		return get(0);
+	}
+	
+	@Override
+	public Instance lastInstance() {
+		return get(numRows - 1);
+	}
+	
+	@Override
+	public Enumeration<Instance> enumerateInstances() {
+		return new Enumeration<Instance>() {
+			private int next = 0;
+			
+			@Override
+			public boolean hasMoreElements() {
+				return next < numRows;
+			}
+			
+			@Override
+			public Instance nextElement() {
+				return get(next++);
+			}
+		};
+	}
+	
+	@Override
+	public double sumOfWeights() {
+		if (weights == null)
+			return numRows;
+		double sum = 0;
+		for (int row = 0; row < numRows; row++)
+			sum += weights[row];
+		return sum;
+	}
+	
+	@Override
+	public void swap(int i, int j) {
+		checkRow(i);
+		checkRow(j);
+		for (int a = 0; a < nominal.length; a++) {
+			if (nominal[a]) {
+				byte[] column = nominalColumns[a];
+				byte swap = column[i];
+				column[i] = column[j];
+				column[j] = swap;
+			} else {
+				float[] column = numericColumns[a];
+				float swap = column[i];
+				column[i] = column[j];
+				column[j] = swap;
+			}
+		}
+		if (weights != null) {
+			double swap = weights[i];
+			weights[i] = weights[j];
+			weights[j] = swap;
+		}
+	}
+	
+	//The same shuffle as Instances.randomize, so a seed gives the same order either way.
+	@Override
+	public void randomize(Random random) {
+		for (int j = numRows - 1; j > 0; j--)
+			swap(j, random.nextInt(j + 1));
+	}
+	
+	@Override
+	public void delete() {
+		numRows = 0;
+		weights = null;
+	}
+	
+	@Override
+	public void delete(int index) {
+		remove(index);
+	}
+	
+	@Override
+	public Instance remove(int index) {
+		Instance removed = (Instance) get(index).copy();
+		for (int a = 0; a < nominal.length; a++) {
+			Object column = nominal[a] ? nominalColumns[a] : numericColumns[a];
+			System.arraycopy(column, index + 1, column, index, numRows - index - 1);
+		}
+		if (weights != null)
+			System.arraycopy(weights, index + 1, weights, index, numRows - index - 1);
+		numRows--;
+		return removed;
+	}
+	
+	//Keeps the order of the remaining rows, like Instances.deleteWithMissing.
+	@Override
+	public void deleteWithMissing(int attribute) {
+		int kept = 0;
+		for (int row = 0; row < numRows; row++) {
+			if (Utils.isMissingValue(value(row, attribute)))
+				continue;
+			if (kept != row) {
+				for (int a = 0; a < nominal.length; a++) {
+					if (nominal[a])
+						nominalColumns[a][kept] = nominalColumns[a][row];
+					else
+						numericColumns[a][kept] = numericColumns[a][row];
+				}
+				if (weights != null)
+					weights[kept] = weights[row];
+			}
+			kept++;
+		}
+		numRows = kept;
+	}
+	
+	@Override
+	public void sort(int attribute) {
+		throw new UnsupportedOperationException("Columnar instances can't be sorted, copy them first.");
+	}
+	
+	@Override
+	public void stableSort(int attribute) {
+		throw new UnsupportedOperationException("Columnar instances can't be sorted, copy them first.");
+	}
+	
+	@Override
+	public void stratify(int numFolds) {
+		throw new UnsupportedOperationException("Columnar instances can't be stratified, copy them first.");
+	}
+	
+	@Override
+	public void insertAttributeAt(Attribute attribute, int position) {
+		throw new UnsupportedOperationException("Columnar instances can't insert attributes, copy them first.");
+	}
+	
+	@Override
+	public void deleteAttributeAt(int position) {
+		throw new UnsupportedOperationException("Columnar instances can't delete attributes, copy them first.");
+	}
+	
+	@Override
+	public void replaceAttributeAt(Attribute attribute, int position) {
+		throw new UnsupportedOperationException("Columnar instances can't replace attributes, copy them first.");
+	}
+	
+	@Override
+	public void compactify() {
+		resize(numRows);
+	}
+	
+	private void ensureCapacity(int rows) {
+		if (rows > capacity)
+			resize(Math.max(rows, capacity + (capacity >> 1) + 16));
+	}
+	
+	private void resize(int capacity) {
+		this.capacity = capacity;
+		for (int a = 0; a < nominal.length; a++) {
+			if (nominal[a])
+				nominalColumns[a] = Arrays.copyOf(nominalColumns[a], capacity);
+			else
+				numericColumns[a] = Arrays.copyOf(numericColumns[a], capacity);
+		}
+		if (weights != null)
+			weights = Arrays.copyOf(weights, capacity);
+	}
+	
+	private void checkRow(int row) {
+		if (row < 0 || row >= numRows)
+			throw new IndexOutOfBoundsException("Row " + row + " of " + numRows);
+	}
+	
+	//One row of a ColumnarInstances. Everything not overridden here goes through value(int) and
+	//numAttributes() in AbstractInstance.
+	private static class Row extends AbstractInstance {
+		private static final long serialVersionUID = 1L;
+		
+		private final ColumnarInstances data;
+		private final int row;
+		
+		Row(ColumnarInstances data, int row) {
+			this.data = data;
+			this.row = row;
+			m_Dataset = data;
+			m_Weight = data.weight(row);
+		}
+		
+		@Override
+		public double value(int attribute) {
+			return data.value(row, attribute);
+		}
+		
+		@Override
+		public void setValue(int attribute, double value) {
+			data.setValue(row, attribute, value);
+		}
+		
+		@Override
+		public int numAttributes() {
+			return data.nominal.length;
+		}
+		
+		@Override
+		public int numValues() {
+			return data.nominal.length;
+		}
+		
+		@Override
+		public int index(int position) {
+			return position;
+		}
+		
+		@Override
+		public double valueSparse(int indexOfIndex) {
+			return value(indexOfIndex);
+		}
+		
+		@Override
+		public void setValueSparse(int indexOfIndex, double value) {
+			setValue(indexOfIndex, value);
+		}
+		
+		@Override
+		public Attribute attributeSparse(int indexOfIndex) {
+			return data.attribute(indexOfIndex);
+		}
+		
+		@Override
+		public double[] toDoubleArray() {
+			double[] values = new double[numAttributes()];
+			for (int a = 0; a < values.length; a++)
+				values[a] = value(a);
+			return values;
+		}
+		
+		@Override
+		public Object copy() {
+			return copy(toDoubleArray());
+		}
+		
+		public Instance copy(double[] values) {
+			DenseInstance copy = new DenseInstance(weight(), values);
+			copy.setDataset(data);
+			return copy;
+		}
+		
+		@Override
+		public Instance mergeInstance(Instance instance) {
+			return ((Instance) copy()).mergeInstance(instance);
+		}
+		
+		@Override
+		public void replaceMissingValues(double[] array) {
+			for (int a = 0; a < numAttributes(); a++) {
+				if (isMissing(a))
+					setValue(a, array[a]);
+			}
+		}
+		
+		@Override
+		public String toStringNoWeight() {
+			return toStringNoWeight(AbstractInstance.s_numericAfterDecimalPoint);
+		}
+		
+		@Override
+		public String toStringNoWeight(int afterDecimalPoint) {
+			StringBuilder text = new StringBuilder();
+			for (int a = 0; a < numAttributes(); a++) {
+				if (a > 0)
+					text.append(',');
+				text.append(toString(a, afterDecimalPoint));
+			}
+			return text.toString();
+		}
+		
+		@Override
+		protected void forceDeleteAttributeAt(int position) {
+			throw new UnsupportedOperationException("Columnar instances can't delete attributes, copy them first.");
+		}
+		
+		@Override
+		protected void forceInsertAttributeAt(int position) {
+			throw new UnsupportedOperationException("Columnar instances can't insert attributes, copy them first.");
+		}
+		
+		public String getRevision() {
+			return "1";
+		}
+	}
+}
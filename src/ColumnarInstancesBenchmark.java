@@ -0,0 +1,80 @@
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+
+//Compares generated customer datasets held as DenseInstances against ColumnarInstances: the heap
+//the training set keeps alive, the time to read every value once through Instance views, and the
+//time to build and test Main's J48 and HistogramTree on it (same seed, so same data).
+//
+//Usage: java ColumnarInstancesBenchmark [training rows...]  (defaults to 10^5 10^6)
+public class ColumnarInstancesBenchmark {
+	private static final long SEED = 7641;
+	private static final int SCAN_RUNS = 5;
+	
+	public static void main(String[] args) throws Exception {
+		int[] sizes = { 100000, 1000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		
+		System.out.println(String.format("%10s %-8s %14s %10s %10s %12s %10s %12s %10s", "rows", "storage",
+				"retained bytes", "bytes/row", "scan ms", "J48 ms", "accuracy", "histogram ms", "accuracy"));
+		for (int size : sizes) {
+			run(size, false);
+			run(size, true);
+		}
+	}
+	
+	private static void run(int size, boolean columnar) throws Exception {
+		long heapBefore = usedHeap();
+		Instances[] customers = CustomerSatisfactionARFFGenerator.generateInstances(size, SEED, columnar);
+		long retained = usedHeap() - heapBefore;
+		
+		double checksum = 0;
+		long scanTime = Long.MAX_VALUE;
+		for (int i = 0; i < SCAN_RUNS; i++) {
+			long startTime = System.nanoTime();
+			checksum += scan(customers[0]);
+			scanTime = Math.min(scanTime, System.nanoTime() - startTime);
+		}
+		
+		double[] decisionTree = buildAndTest(Main.createDecisionTree(), customers[0], customers[1]);
+		double[] histogramTree = buildAndTest(Main.createHistogramTree(), customers[0], customers[1]);
+		System.out.println(String.format("%10d %-8s %14d %10.1f %10.1f %12.1f %9.2f%% %12.1f %9.2f%%", size,
+				columnar ? "columnar" : "dense", retained, (double) retained / size, scanTime / 1000000.0,
+				decisionTree[0], decisionTree[1], histogramTree[0], histogramTree[1]));
+		if (Double.isNaN(checksum))
+			System.out.println("(missing values in the scan)");
+	}
+	
+	private static double scan(Instances data) {
+		double sum = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			for (int a = 0; a < instance.numAttributes(); a++)
+				sum += instance.value(a);
+		}
+		return sum;
+	}
+	
+	//Build time in ms and test set accuracy in percent.
+	private static double[] buildAndTest(Classifier classifier, Instances training, Instances test) throws Exception {
+		long startTime = System.nanoTime();
+		classifier.buildClassifier(training);
+		long buildTime = System.nanoTime() - startTime;
+		
+		Evaluation evaluation = new Evaluation(training);
+		evaluation.evaluateModel(classifier, test);
+		return new double[] { buildTime / 1000000.0, 100.0 * evaluation.correct() / evaluation.numInstances() };
+	}
+	
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import weka.classifiers.AggregateableEvaluation;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+//Stratified k-fold cross-validation with the folds trained and tested at the same time, each on
+//its own thread with its own classifier. The rows of every class are shuffled and dealt out to
+//the folds in turn, so every fold has about the same class mix as the whole dataset. A fold's
+//training and test sets are views: Instances that hold the very same Instance objects as the
+//data instead of copies. That is safe for the same reason TrainingScheduler can share datasets:
+//Weka's classifiers copy their training data before changing it. The fold evaluations are
+//merged into one, whose counts are the same as testing every row once.
+public class CrossValidation {
+	public static Result crossValidate(final Supplier<Classifier> classifiers, final Instances data, int numFolds,
+	long seed, int numThreads) throws Exception {
+		if (numFolds < 2 || numFolds > data.numInstances())
+			throw new IllegalArgumentException("Can't make " + numFolds + " folds of " + data.numInstances() + " rows.");
+		
+		final int[] folds = stratifiedFolds(data, numFolds, seed);
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, numFolds)));
+		try {
+			List<Future<Fold>> tasks = new ArrayList<Future<Fold>>();
+			for (int f = 0; f < numFolds; f++) {
+				final int fold = f;
+				tasks.add(executor.submit(() -> {
+					Instances training = new View(data, folds, fold, false);
+					Instances test = new View(data, folds, fold, true);
+					Classifier classifier = classifiers.get();
+					
+					long foldStartTime = System.nanoTime();
+					classifier.buildClassifier(training);
+					long trainTime = System.nanoTime() - foldStartTime;
+					
+					foldStartTime = System.nanoTime();
+					Evaluation evaluation = new Evaluation(training);
+					evaluation.evaluateModel(classifier, test);
+					long testTime = System.nanoTime() - foldStartTime;
+					return new Fold(fold, evaluation, trainTime, testTime);
+				}));
+			}
+			
+			List<Fold> results = new ArrayList<Fold>();
+			for (Future<Fold> task : tasks)
+				results.add(task.get());
+			AggregateableEvaluation evaluation = new AggregateableEvaluation(data);
+			for (Fold fold : results)
+				evaluation.aggregate(fold.evaluation);
+			return new Result(evaluation, results, System.nanoTime() - startTime);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	//The fold of every row. Rows without a class are dealt out after the last class.
+	private static int[] stratifiedFolds(Instances data, int numFolds, long seed) {
+		List<List<Integer>> classes = new ArrayList<List<Integer>>();
+		for (int c = 0; c <= data.numClasses(); c++)
+			classes.add(new ArrayList<Integer>());
+		for (int i = 0; i < data.numInstances(); i++) {
+			if (data.instance(i).classIsMissing())
+				classes.get(data.numClasses()).add(i);
+			else
+				classes.get((int) data.instance(i).classValue()).add(i);
+		}
+		
+		Random random = new Random(seed);
+		int[] folds = new int[data.numInstances()];
+		int next = 0;
+		for (List<Integer> rows : classes) {
+			Collections.shuffle(rows, random);
+			for (int row : rows)
+				folds[row] = next++ % numFolds;
+		}
+		return folds;
+	}
+	
+	//The rows of one fold (the test set) or of every other fold (the training set), without
+	//copying them.
+	private static class View extends Instances {
+		private static final long serialVersionUID = 1L;
+		
+		View(Instances data, int[] folds, int fold, boolean test) {
+			super(data, 0);
+			for (int i = 0; i < folds.length; i++) {
+				if ((folds[i] == fold) == test)
+					m_Instances.add(data.instance(i));
+			}
+		}
+	}
+	
+	private static class Fold {
+		private final int fold;
+		private final Evaluation evaluation;
+		private final long trainTime, testTime;
+		
+		Fold(int fold, Evaluation evaluation, long trainTime, long testTime) {
+			this.fold = fold;
+			this.evaluation = evaluation;
+			this.trainTime = trainTime;
+			this.testTime = testTime;
+		}
+		
+		double accuracy() {
+			return 100.0 * evaluation.correct() / evaluation.numInstances();
+		}
+	}
+	
+	public static class Result {
+		private final Evaluation evaluation;
+		private final List<Fold> folds;
+		private final long wallTime;
+		
+		private Result(Evaluation evaluation, List<Fold> folds, long wallTime) {
+			this.evaluation = evaluation;
+			this.folds = folds;
+			this.wallTime = wallTime;
+		}
+		
+		//All folds merged.
+		public Evaluation getEvaluation() {
+			return evaluation;
+		}
+		
+		public double accuracy() {
+			return 100.0 * evaluation.correct() / evaluation.numInstances();
+		}
+		
+		//The standard deviation of the fold accuracies.
+		public double accuracyDeviation() {
+			double mean = 0;
+			for (Fold fold : folds)
+				mean += fold.accuracy() / folds.size();
+			double variance = 0;
+			for (Fold fold : folds)
+				variance += (fold.accuracy() - mean) * (fold.accuracy() - mean) / (folds.size() - 1);
+			return Math.sqrt(variance);
+		}
+		
+		//The merged accuracy, then one line per fold with its accuracy and times, then the wall
+		//time and the summed fold time over it. The folds are timed while competing for cores, so
+		//that ratio overstates the speedup over running them one after another.
+		@Override
+		public String toString() {
+			StringBuilder summary = new StringBuilder(String.format("%.4f (+/- %.4f over %d folds)%n",
+					accuracy(), accuracyDeviation(), folds.size()));
+			long totalTime = 0;
+			for (Fold fold : folds) {
+				totalTime += fold.trainTime + fold.testTime;
+				summary.append(String.format("  fold %d: %.4f (%d rows, train %.3fs, test %.3fs)%n", fold.fold + 1,
+						fold.accuracy(), (int) fold.evaluation.numInstances(), fold.trainTime / 1000000000.0,
+						fold.testTime / 1000000000.0));
+			}
+			summary.append(String.format("  wall time: %.3fs, summed fold time: %.3fs, summed fold time / wall time: %.2f",
+					wallTime / 1000000000.0, totalTime / 1000000000.0, (double) totalTime / wallTime));
+			return summary.toString();
+		}
+	}
+}
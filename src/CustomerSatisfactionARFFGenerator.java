@@ -1,13 +1,28 @@
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
 
 public class CustomerSatisfactionARFFGenerator {
 	private static final int NUM_CUSTOMERS_TEST = 1000;
+	private static final int CUSTOMERS_PER_SHARD = 250000; //Fixed so parallel output does not depend on core count.
+	
+	private static final String[] GENDERS = { "male", "female" };
+	private static final String[] RACES = { "asian", "black", "latino", "white" };
+	private static final String[] SATISFACTION_LEVELS = { "very_unsatisfied", "unsatisfied", 
+		"indifferent", "satisfied", "very_satisfied" };
+	
+	private static final byte[][] GENDER_BYTES = encode(GENDERS);
+	private static final byte[][] RACE_BYTES = encode(RACES);
+	private static final byte[][] SATISFACTION_LEVEL_BYTES = encode(SATISFACTION_LEVELS);
 	
 	//Creates two arff files. One contains the training data for the pokemon and the other 
 	//contains the test data.
@@ -18,65 +33,27 @@ public class CustomerSatisfactionARFFGenerator {
 		try {
 			for (File file : new File[] { training, test } )
 			{	
-				FileOutputStream outputStream = new FileOutputStream(file);
-				BufferedWriter bufferedWriter 
-					= new BufferedWriter(new OutputStreamWriter(outputStream));
-				
-				WriteLine(bufferedWriter, "@RELATION customer_satisfaction");
-				WriteLine(bufferedWriter, "");
+				ARFFWriter writer = new ARFFWriter(file);
 				
-				WriteLine(bufferedWriter, "@ATTRIBUTE	gender	{male,female}");
-				WriteLine(bufferedWriter, "@ATTRIBUTE	age		REAL");
-				WriteLine(bufferedWriter, "@ATTRIBUTE	income	REAL");
-				WriteLine(bufferedWriter, "@ATTRIBUTE	race	{asian,black,latino,white}");
-				WriteLine(bufferedWriter, "@ATTRIBUTE	satisfaction_level	{very_unsatisfied,unsatisfied,indifferent,satisfied,very_satisfied}");
-				WriteLine(bufferedWriter, "");
+				WriteHeader(writer);
 				
 				Random rand = new Random();
-				WriteLine(bufferedWriter, "@DATA");
 				
 				int numCustomers = numCustomersTraining;
 				if (file.equals(test))
 					numCustomers = NUM_CUSTOMERS_TEST;
-								
+				
 				for (int i = 0; i < numCustomers; i++) {
-					String gender = "male";
-					if (rand.nextBoolean())
-						gender = "female";
-					
+					int gender = rand.nextBoolean() ? 1 : 0;
 					int age = rand.nextInt(100 - 18) + 18;
 					int income = (rand.nextInt(250 - 25) + 25) * 1000;
-					int raceInt = rand.nextInt(4);
-					String race = "asian";
-					if (raceInt == 1)
-						race = "black";
-					else if (raceInt == 2)
-						race = "latino";
-					else if (raceInt == 3)
-						race = "white";
-					
-					float satisfactionFromGender = gender.equals("female") ? 1f : .9f;					
-					float satisfactionFromAge = 1f - (Math.abs(40 - age) / 150.0f);
-					satisfactionFromAge = Math.max(satisfactionFromAge, 0);
-					float satisfactionFromIncome = 1f - (Math.abs(100000 - income) / 200000f);
-					float totalSatisfaction = satisfactionFromGender * satisfactionFromAge * 
-							satisfactionFromIncome;
-					totalSatisfaction += rand.nextGaussian() * .05f;
+					int race = rand.nextInt(4);
+					int satisfaction = satisfactionLevel(gender, age, income, rand.nextGaussian());
 					
-					String satisfaction = "very_satisfied";
-					if (totalSatisfaction < .2) 
-						satisfaction = "very_unsatisfied";
-					else if (totalSatisfaction < .4)
-						satisfaction = "unsatisfied";
-					else if (totalSatisfaction < .6)
-						satisfaction = "indifferent";
-					else if (totalSatisfaction < .8)
-						satisfaction = "satisfied";
-					
-					WriteCustomer(bufferedWriter, gender, age, income, race, satisfaction);
+					WriteCustomer(writer, gender, age, income, race, satisfaction);
 				}
 				
-				bufferedWriter.close();
+				writer.close();
 				if (showOutput)
 					System.out.println("Finished writing to file " + file.getName());
 			}
@@ -87,14 +64,191 @@ public class CustomerSatisfactionARFFGenerator {
 		}
 	}
 	
-	private static void WriteLine(BufferedWriter bufferedWriter, String line) throws IOException {
-		bufferedWriter.write(line);
-		bufferedWriter.newLine();
+	//Same as generateFile, but the rows are generated in fixed size shards across all cores. 
+	//Every shard draws from its own SplittableRandom split off the seed, so the same seed 
+	//always produces the same files.
+	public static void generateFileParallel(int numCustomersTraining, long seed, boolean showOutput) {
+		File training = new File("data" + File.separator + Main.CUSTOMER_SATISFACTION_TRAINING_DATA_SET);
+		File test = new File("data" + File.separator + Main.CUSTOMER_SATISFACTION_TEST_DATA_SET);
+		
+		try {
+			SplittableRandom[] fileStreams = ShardedGeneration.splitStreams(seed, 2);
+			File[] files = new File[] { training, test };
+			for (int f = 0; f < files.length; f++) {
+				File file = files[f];
+				int numCustomers = numCustomersTraining;
+				if (file.equals(test))
+					numCustomers = NUM_CUSTOMERS_TEST;
+				
+				int numShards = Math.max(1, (numCustomers + CUSTOMERS_PER_SHARD - 1) / CUSTOMERS_PER_SHARD);
+				SplittableRandom[] streams = ShardedGeneration.splitStreams(
+						fileStreams[f].nextLong(), numShards);
+				List<ShardedGeneration.Shard> shards = new ArrayList<ShardedGeneration.Shard>();
+				for (int i = 0; i < numShards; i++) {
+					final SplittableRandom rand = streams[i];
+					final int shardSize = Math.min(CUSTOMERS_PER_SHARD, numCustomers - i * CUSTOMERS_PER_SHARD);
+					shards.add(writer -> {
+						double[] customer = new double[5];
+						for (int j = 0; j < shardSize; j++) {
+							RandomCustomer(rand, customer);
+							WriteCustomer(writer, (int) customer[0], (int) customer[1], (int) customer[2], 
+									(int) customer[3], (int) customer[4]);
+						}
+					});
+				}
+				
+				ShardedGeneration.writeShards(file, Header(), shards);
+				if (showOutput)
+					System.out.println("Finished writing to file " + file.getName());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	//Generates the training and test data straight into Instances, skipping the ARFF text. Uses 
+	//the same shards and random streams as generateFileParallel, so for the same seed the data 
+	//is the same as what generateFileParallel writes.
+	public static Instances[] generateInstances(int numCustomersTraining, long seed) {
+		return generateInstances(numCustomersTraining, seed, false);
+	}
+	
+	//As above, optionally into ColumnarInstances, which the shards fill in place. The data is the 
+	//same either way.
+	public static Instances[] generateInstances(int numCustomersTraining, long seed, boolean columnar) {
+		SplittableRandom[] fileStreams = ShardedGeneration.splitStreams(seed, 2);
+		return new Instances[] { 
+			generateDataSet(numCustomersTraining, fileStreams[0].nextLong(), columnar),
+			generateDataSet(NUM_CUSTOMERS_TEST, fileStreams[1].nextLong(), columnar)
+		};
+	}
+	
+	private static Instances generateDataSet(final int numCustomers, long seed, boolean columnar) {
+		int numShards = Math.max(1, (numCustomers + CUSTOMERS_PER_SHARD - 1) / CUSTOMERS_PER_SHARD);
+		final SplittableRandom[] streams = ShardedGeneration.splitStreams(seed, numShards);
+		if (columnar) {
+			final ColumnarInstances data = ColumnarInstances.create(createHeader(0), numCustomers);
+			ShardedGeneration.fillShards(numShards, shard -> {
+				double[] customer = new double[5];
+				int end = Math.min(numCustomers, (shard + 1) * CUSTOMERS_PER_SHARD);
+				for (int i = shard * CUSTOMERS_PER_SHARD; i < end; i++) {
+					RandomCustomer(streams[shard], customer);
+					data.setRow(i, customer);
+				}
+			});
+			return data;
+		}
+		
+		final double[][] customers = new double[numCustomers][];
+		ShardedGeneration.fillShards(numShards, shard -> {
+			int end = Math.min(numCustomers, (shard + 1) * CUSTOMERS_PER_SHARD);
+			for (int i = shard * CUSTOMERS_PER_SHARD; i < end; i++) {
+				customers[i] = new double[5];
+				RandomCustomer(streams[shard], customers[i]);
+			}
+		});
+		
+		Instances data = createHeader(numCustomers);
+		for (double[] customer : customers)
+			data.add(new DenseInstance(1.0, customer));
+		return data;
+	}
+	
+	//Builds the empty dataset with the same attributes as the ARFF header.
+	public static Instances createHeader(int capacity) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("gender", Arrays.asList(GENDERS)));
+		attributes.add(new Attribute("age"));
+		attributes.add(new Attribute("income"));
+		attributes.add(new Attribute("race", Arrays.asList(RACES)));
+		attributes.add(new Attribute("satisfaction_level", Arrays.asList(SATISFACTION_LEVELS)));
+		
+		Instances data = new Instances("customer_satisfaction", attributes, capacity);
+		data.setClassIndex(data.numAttributes() - 1);
+		return data;
+	}
+	
+	//Maps a customer onto an index into SATISFACTION_LEVELS. The noise should be drawn from a 
+	//standard normal distribution.
+	private static int satisfactionLevel(int gender, int age, int income, double noise) {
+		float satisfactionFromGender = gender == 1 ? 1f : .9f;
+		float satisfactionFromAge = 1f - (Math.abs(40 - age) / 150.0f);
+		satisfactionFromAge = Math.max(satisfactionFromAge, 0);
+		float satisfactionFromIncome = 1f - (Math.abs(100000 - income) / 200000f);
+		float totalSatisfaction = satisfactionFromGender * satisfactionFromAge * 
+				satisfactionFromIncome;
+		totalSatisfaction += noise * .05f;
+		
+		if (totalSatisfaction < .2) 
+			return 0;
+		else if (totalSatisfaction < .4)
+			return 1;
+		else if (totalSatisfaction < .6)
+			return 2;
+		else if (totalSatisfaction < .8)
+			return 3;
+		return 4;
+	}
+	
+	//Draws one customer into a row of attribute values (nominal values as indices).
+	private static void RandomCustomer(SplittableRandom rand, double[] customer) {
+		int gender = rand.nextBoolean() ? 1 : 0;
+		int age = rand.nextInt(100 - 18) + 18;
+		int income = (rand.nextInt(250 - 25) + 25) * 1000;
+		int race = rand.nextInt(4);
+		int satisfaction = satisfactionLevel(gender, age, income, ShardedGeneration.nextGaussian(rand));
+		
+		customer[0] = gender;
+		customer[1] = age;
+		customer[2] = income;
+		customer[3] = race;
+		customer[4] = satisfaction;
+	}
+	
+	//One random customer as a CSV row without the satisfaction level, e.g. for prediction requests.
+	public static String randomQuery(SplittableRandom rand) {
+		double[] customer = new double[5];
+		RandomCustomer(rand, customer);
+		return GENDERS[(int) customer[0]] + "," + (int) customer[1] + "," + (int) customer[2] + ","
+				+ RACES[(int) customer[3]];
+	}
+	
+	private static String Header() {
+		String newLine = System.lineSeparator();
+		return "@RELATION customer_satisfaction" + newLine
+			+ newLine
+			+ "@ATTRIBUTE	gender	{male,female}" + newLine
+			+ "@ATTRIBUTE	age		REAL" + newLine
+			+ "@ATTRIBUTE	income	REAL" + newLine
+			+ "@ATTRIBUTE	race	{asian,black,latino,white}" + newLine
+			+ "@ATTRIBUTE	satisfaction_level	{very_unsatisfied,unsatisfied,indifferent,satisfied,very_satisfied}" + newLine
+			+ newLine
+			+ "@DATA" + newLine;
+	}
+	
+	private static void WriteHeader(ARFFWriter writer) throws IOException {
+		writer.write(ARFFWriter.encode(Header()));
+	}
+	
+	//Writes one row from the nominal value indices and numbers, without allocating.
+	private static void WriteCustomer(ARFFWriter writer, int gender, int age, int income, int race, 
+	int satisfactionLevel) throws IOException {
+		writer.write(GENDER_BYTES[gender]);
+		writer.write(',');
+		writer.write(age);
+		writer.write(',');
+		writer.write(income);
+		writer.write(',');
+		writer.write(RACE_BYTES[race]);
+		writer.write(',');
+		writer.write(SATISFACTION_LEVEL_BYTES[satisfactionLevel]);
+		writer.newLine();
 	}
 	
-	private static void WriteCustomer(BufferedWriter bufferedWriter, String gender, int age, 
-	int income, String race, String satisfactionLevel) throws IOException {
-		WriteLine(bufferedWriter,  gender + "," + age + "," +  income + "," + race + "," +
-			satisfactionLevel);
+	private static byte[][] encode(String[] values) {
+		byte[][] encoded = new byte[values.length][];
+		for (int i = 0; i < values.length; i++)
+			encoded[i] = ARFFWriter.encode(values[i]);
+		return encoded;
 	}
 }
@@ -0,0 +1,338 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+//Fans (run, classifier, dataset) jobs out to worker JVMs over sockets and collects their accuracy
+//and timings. The coordinator listens on a port and can start local workers itself; workers on
+//other machines join by connecting to the same port. Each worker generates its own data from the
+//job's seed, so every worker sees the same data for the same run. When a worker dies or stops
+//answering, the job it had is handed to another worker, up to MAX_ATTEMPTS times.
+//
+//The coordinator only listens on the loopback address unless it is given a host to listen on, so
+//by default only local workers can connect. Both ends only deserialize jobs, results and the
+//classes of Weka's models (ALLOWED_CLASSES), since anyone who can connect can send objects.
+//
+//Usage for a remote worker: java DistributedRuns <coordinator host> <port> [jobs before crashing]
+//The last argument makes the worker exit abruptly, to try out the retries.
+public class DistributedRuns {
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int JOB_TIMEOUT = 60 * 60 * 1000; //A worker silent for this long (ms) counts as failed.
+	private static final int CONNECT_ATTEMPTS = 30; //Workers retry once a second until the coordinator listens.
+	private static final ObjectInputFilter ALLOWED_CLASSES = ObjectInputFilter.Config.createFilter(
+			Job.class.getName() + ";" + Result.class.getName() + ";java.lang.*;java.util.*;weka.**;!*");
+	
+	//Runs the jobs on local workers started here plus any remote workers that connect, and
+	//returns every result once all jobs are done or no worker is left to do them. Listens on host,
+	//or only on the loopback address when it is null. Local workers exit after jobsBeforeCrashing
+	//jobs unless it is negative.
+	public static List<Result> coordinate(List<Job> jobs, String host, int port, int localWorkers, int jobsBeforeCrashing)
+	throws IOException, InterruptedException {
+		final BlockingQueue<Job> pending = new LinkedBlockingQueue<Job>(jobs);
+		final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+		final CountDownLatch done = new CountDownLatch(jobs.size());
+		final AtomicInteger connections = new AtomicInteger();
+		InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+		final ServerSocket serverSocket = new ServerSocket(port, 0, address);
+		//Local workers connect to the address listened on, or to loopback when that is all of them.
+		String localAddress = (address.isAnyLocalAddress() ? InetAddress.getLoopbackAddress() : address).getHostAddress();
+		long startTime = System.nanoTime();
+		
+		Thread acceptor = new Thread(() -> {
+			try {
+				while (true) {
+					final Socket socket = serverSocket.accept();
+					connections.incrementAndGet();
+					Thread connection = new Thread(() -> serve(socket, pending, results, done, connections));
+					connection.setDaemon(true);
+					connection.start();
+				}
+			} catch (IOException e) {
+				//The server socket was closed.
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		
+		List<Process> processes = new ArrayList<Process>();
+		for (int i = 0; i < localWorkers; i++)
+			processes.add(startLocalWorker(localAddress, port, jobsBeforeCrashing));
+		
+		//Only give up early when every local worker is gone; remote workers may still join when
+		//there are none.
+		while (!done.await(1, TimeUnit.SECONDS)) {
+			if (localWorkers > 0 && connections.get() == 0 && allExited(processes)) {
+				System.out.println("Every worker has exited, " + done.getCount() + " jobs were not run.");
+				break;
+			}
+		}
+		serverSocket.close();
+		for (Process process : processes) {
+			if (!process.waitFor(10, TimeUnit.SECONDS))
+				process.destroy();
+		}
+		
+		printSummary(results, System.nanoTime() - startTime);
+		return results;
+	}
+	
+	//Hands jobs to one worker until every job is done, then tells it to stop.
+	private static void serve(Socket socket, BlockingQueue<Job> pending, List<Result> results, CountDownLatch done,
+	AtomicInteger connections) {
+		String worker = socket.getRemoteSocketAddress().toString();
+		Job job = null;
+		try {
+			socket.setSoTimeout(JOB_TIMEOUT);
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			in.setObjectInputFilter(ALLOWED_CLASSES);
+			
+			while (done.getCount() > 0) {
+				job = pending.poll(1, TimeUnit.SECONDS);
+				if (job == null)
+					continue;
+				
+				out.writeObject(job);
+				out.flush();
+				out.reset();
+				Result result = (Result) in.readObject();
+				result.worker = worker;
+				result.attempts = job.attempts + 1;
+				job = null;
+				
+				results.add(result);
+				System.out.println(result);
+				done.countDown();
+			}
+			out.writeObject(null);
+			out.flush();
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			System.out.println("Lost worker " + worker + ": " + e);
+			if (job != null)
+				retry(job, pending, results, done);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			connections.decrementAndGet();
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private static void retry(Job job, BlockingQueue<Job> pending, List<Result> results, CountDownLatch done) {
+		job.attempts++;
+		if (job.attempts < MAX_ATTEMPTS) {
+			pending.add(job);
+		} else {
+			Result result = new Result(job);
+			result.error = "failed on " + MAX_ATTEMPTS + " workers";
+			result.attempts = job.attempts;
+			results.add(result);
+			System.out.println(result);
+			done.countDown();
+		}
+	}
+	
+	//Starts a worker JVM with this JVM's classpath and options (e.g. -Xmx).
+	private static Process startLocalWorker(String host, int port, int jobsBeforeCrashing) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(DistributedRuns.class.getName());
+		command.add(host);
+		command.add(String.valueOf(port));
+		if (jobsBeforeCrashing >= 0)
+			command.add(String.valueOf(jobsBeforeCrashing));
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+	
+	private static boolean allExited(List<Process> processes) {
+		for (Process process : processes) {
+			if (process.isAlive())
+				return false;
+		}
+		return true;
+	}
+	
+	//Averages accuracy and times per (classifier, dataset) over the runs that succeeded.
+	private static void printSummary(List<Result> results, long wallTime) {
+		Map<String, List<Result>> groups = new LinkedHashMap<String, List<Result>>();
+		synchronized (results) {
+			for (Result result : results)
+				groups.computeIfAbsent(result.dataSetName + " " + result.classifierName, key -> new ArrayList<Result>()).add(result);
+		}
+		
+		System.out.println();
+		long totalTime = 0;
+		for (Map.Entry<String, List<Result>> group : groups.entrySet()) {
+			double accuracy = 0, trainTime = 0, testTime = 0;
+			int succeeded = 0;
+			for (Result result : group.getValue()) {
+				totalTime += result.trainTime + result.testTime;
+				if (result.error == null) {
+					accuracy += result.accuracy;
+					trainTime += result.trainTime / 1000000000.0;
+					testTime += result.testTime / 1000000000.0;
+					succeeded++;
+				}
+			}
+			if (succeeded == 0) {
+				System.out.println(group.getKey() + ": every run failed");
+				continue;
+			}
+			System.out.println(group.getKey() + ": " + accuracy / succeeded + " (" + succeeded + " runs, average train "
+					+ trainTime / succeeded + "s, test " + testTime / succeeded + "s)");
+		}
+		System.out.println("Wall time: " + wallTime / 1000000000.0 + "s, summed job time: " + totalTime / 1000000000.0
+				+ "s, summed job time / wall time: " + (double) totalTime / wallTime);
+	}
+	
+	//Worker: connects to the coordinator and runs the jobs it sends until it sends null.
+	public static void main(String[] args) throws Exception {
+		String host = args[0];
+		int port = Integer.parseInt(args[1]);
+		int jobsBeforeCrashing = args.length > 2 ? Integer.parseInt(args[2]) : -1;
+		
+		Socket socket = null;
+		for (int attempt = 1; socket == null; attempt++) {
+			try {
+				socket = new Socket(host, port);
+			} catch (SocketException e) {
+				if (attempt == CONNECT_ATTEMPTS)
+					throw e;
+				Thread.sleep(1000);
+			}
+		}
+		
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			in.setObjectInputFilter(ALLOWED_CLASSES);
+			Job job;
+			while ((job = (Job) in.readObject()) != null) {
+				if (jobsBeforeCrashing-- == 0)
+					System.exit(1);
+				out.writeObject(job.execute());
+				out.flush();
+				out.reset();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+	
+	//One classifier trained and tested on one dataset of one run.
+	public static class Job implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		//The data of the last run is kept, since a worker usually gets several jobs of the same run.
+		private static String lastDataKey;
+		private static Instances[] lastData;
+		
+		private final int run;
+		private final String classifierName;
+		private final boolean pokemon;
+		private final int entries; //Entries per pokemon, or customers.
+		private final long seed;
+		private final boolean testAgainstTestSet;
+		private int attempts;
+		
+		public Job(int run, String classifierName, boolean pokemon, int entries, long seed, boolean testAgainstTestSet) {
+			this.run = run;
+			this.classifierName = classifierName;
+			this.pokemon = pokemon;
+			this.entries = entries;
+			this.seed = seed;
+			this.testAgainstTestSet = testAgainstTestSet;
+		}
+		
+		private Result execute() {
+			Result result = new Result(this);
+			try {
+				Instances[] data = data();
+				Instances test = testAgainstTestSet ? data[1] : data[0];
+				Classifier classifier = Main.createClassifier(classifierName, pokemon);
+				
+				long startTime = System.nanoTime();
+				classifier.buildClassifier(data[0]);
+				result.trainTime = System.nanoTime() - startTime;
+				
+				startTime = System.nanoTime();
+				Evaluation evaluation = new Evaluation(data[0]);
+				evaluation.evaluateModel(classifier, test);
+				result.testTime = System.nanoTime() - startTime;
+				result.accuracy = 100.0 * evaluation.correct() / evaluation.numInstances();
+			} catch (Exception e) {
+				result.error = e.toString();
+			}
+			return result;
+		}
+		
+		private Instances[] data() {
+			String key = pokemon + " " + entries + " " + seed;
+			if (!key.equals(lastDataKey)) {
+				lastData = null;
+				lastData = pokemon ? PokemonARFFGenerator.generateInstances(entries, seed)
+						: CustomerSatisfactionARFFGenerator.generateInstances(entries, seed);
+				lastDataKey = key;
+			}
+			return lastData;
+		}
+	}
+	
+	public static class Result implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		private final int run;
+		private final String classifierName;
+		private final String dataSetName;
+		private double accuracy;
+		private long trainTime, testTime;
+		private String error;
+		private String worker;
+		private int attempts;
+		
+		private Result(Job job) {
+			run = job.run;
+			classifierName = job.classifierName;
+			dataSetName = job.pokemon ? "Pokemon" : "Customer Satisfaction";
+		}
+		
+		@Override
+		public String toString() {
+			String job = "Run " + run + " " + dataSetName + " " + classifierName;
+			if (error != null)
+				return job + " failed: " + error;
+			return job + ": " + accuracy + " (train " + trainTime / 1000000000.0 + "s, test " + testTime / 1000000000.0
+					+ "s, " + worker + (attempts > 1 ? ", attempt " + attempts : "") + ")";
+		}
+	}
+}
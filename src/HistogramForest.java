@@ -0,0 +1,150 @@
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Randomizable;
+import weka.core.Utils;
+import weka.core.WeightedInstancesHandler;
+
+//A random forest of HistogramTrees, set up like Weka's RandomForest: every tree is grown on a
+//bootstrap sample, unpruned, with log2(attributes) + 1 random attributes tried per node, and
+//the forest predicts the average of the trees' distributions. The data is binned once for the
+//whole forest and the trees are grown in parallel. A bootstrap sample is a count per row that
+//scales the row's weight, so no instances are copied.
+public class HistogramForest extends AbstractClassifier implements Randomizable, WeightedInstancesHandler {
+	private static final long serialVersionUID = 1L;
+	
+	private int numIterations = 100;
+	private int numFeatures = 0;
+	private int maxDepth = 0;
+	private int maxBins = BinnedInstances.MAX_BINS;
+	private int seed = 1;
+	
+	private HistogramTree[] trees;
+	private int numClasses;
+	
+	//Number of trees.
+	public void setNumIterations(int numIterations) {
+		this.numIterations = numIterations;
+	}
+	
+	public int getNumIterations() {
+		return numIterations;
+	}
+	
+	//Attributes tried per node, 0 for log2(attributes) + 1.
+	public void setNumFeatures(int numFeatures) {
+		this.numFeatures = numFeatures;
+	}
+	
+	public int getNumFeatures() {
+		return numFeatures;
+	}
+	
+	//0 for no limit.
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+	
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	public void setMaxBins(int maxBins) {
+		this.maxBins = maxBins;
+	}
+	
+	public int getMaxBins() {
+		return maxBins;
+	}
+	
+	@Override
+	public void setSeed(int seed) {
+		this.seed = seed;
+	}
+	
+	@Override
+	public int getSeed() {
+		return seed;
+	}
+	
+	@Override
+	public String[] getOptions() {
+		return new String[] { "-I", String.valueOf(numIterations), "-K", String.valueOf(numFeatures),
+				"-depth", String.valueOf(maxDepth), "-B", String.valueOf(maxBins), "-S", String.valueOf(seed) };
+	}
+	
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String option = Utils.getOption('I', options);
+		numIterations = option.isEmpty() ? 100 : Integer.parseInt(option);
+		option = Utils.getOption('K', options);
+		numFeatures = option.isEmpty() ? 0 : Integer.parseInt(option);
+		option = Utils.getOption("depth", options);
+		maxDepth = option.isEmpty() ? 0 : Integer.parseInt(option);
+		option = Utils.getOption('B', options);
+		maxBins = option.isEmpty() ? BinnedInstances.MAX_BINS : Integer.parseInt(option);
+		option = Utils.getOption('S', options);
+		seed = option.isEmpty() ? 1 : Integer.parseInt(option);
+	}
+	
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		final BinnedInstances binned = new BinnedInstances(data, maxBins, seed);
+		numClasses = binned.numClasses;
+		final int features = numFeatures > 0 ? numFeatures : (int) Utils.log2(binned.numAttributes) + 1;
+		
+		//One random stream per tree, split off in order, so the forest does not depend on which
+		//thread grows which tree.
+		final SplittableRandom[] randoms = new SplittableRandom[numIterations];
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int t = 0; t < numIterations; t++)
+			randoms[t] = random.split();
+		
+		final HistogramTree[] grown = new HistogramTree[numIterations];
+		IntStream.range(0, numIterations).parallel().forEach(t -> {
+			int[] counts = new int[binned.numRows];
+			for (int i = 0; i < binned.numRows; i++)
+				counts[randoms[t].nextInt(binned.numRows)]++;
+			int numRows = 0;
+			for (int count : counts) {
+				if (count > 0)
+					numRows++;
+			}
+			int[] rows = new int[numRows];
+			double[] rowWeights = new double[binned.numRows];
+			for (int row = 0, next = 0; row < binned.numRows; row++) {
+				if (counts[row] > 0) {
+					rows[next++] = row;
+					rowWeights[row] = counts[row] * binned.weights[row];
+				}
+			}
+			
+			HistogramTree tree = new HistogramTree();
+			tree.setMinNumObj(1);
+			tree.setUnpruned(true);
+			tree.setMaxDepth(maxDepth);
+			tree.grow(binned, rowWeights, rows, features, randoms[t]);
+			grown[t] = tree;
+		});
+		trees = grown;
+	}
+	
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		double[] distribution = new double[numClasses];
+		for (HistogramTree tree : trees) {
+			double[] treeDistribution = tree.distributionForInstance(instance);
+			for (int c = 0; c < numClasses; c++)
+				distribution[c] += treeDistribution[c];
+		}
+		double sum = 0;
+		for (double probability : distribution)
+			sum += probability;
+		if (sum > 0)
+			Utils.normalize(distribution, sum);
+		return distribution;
+	}
+}
@@ -0,0 +1,515 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Statistics;
+import weka.core.Utils;
+import weka.core.WeightedInstancesHandler;
+
+//A decision tree grown from BinnedInstances: instead of sorting a numeric attribute at every
+//node, it finds a node's best split from a histogram of class weights per bin. Only the smaller
+//child's histogram is counted from its rows; the larger child's is the parent's minus the
+//smaller one's. Nodes with many rows grow their two subtrees in parallel.
+//
+//Splits are binary and chosen by information gain: a numeric attribute at a bin edge, a nominal
+//attribute on one value against the rest. Missing values go to the heavier child. Growing stops
+//at nodes that are pure, at maxDepth, or that can't be split into two children of at least
+//minNumObj weight, and the tree is then pruned like J48's (without subtree raising). Instance
+//weights are used throughout, so it can be the base classifier of AdaBoostM1 without resampling.
+public class HistogramTree extends AbstractClassifier implements WeightedInstancesHandler {
+	private static final long serialVersionUID = 1L;
+	private static final int PARALLEL_ROWS = 4096; //Nodes with fewer rows grow their children on one thread.
+	private static final double MIN_GAIN = 1e-10;
+	
+	private int maxBins = BinnedInstances.MAX_BINS;
+	private double minNumObj = 2;
+	private int maxDepth = 0;
+	private boolean unpruned = false;
+	private double confidenceFactor = 0.25;
+	
+	//The tree, flattened. Node n is a leaf when nodeAttribute[n] == -1, and then predicts
+	//nodeDistribution[n]. Otherwise an instance goes to nodeLeft[n] when its value of attribute
+	//attributeIndices[nodeAttribute[n]] is at most nodeSplit[n] (numeric) or equal to it (nominal).
+	private int[] attributeIndices;
+	private boolean[] nominal;
+	private int[] nodeAttribute;
+	private double[] nodeSplit;
+	private boolean[] nodeMissingLeft;
+	private int[] nodeLeft;
+	private int[] nodeRight;
+	private double[][] nodeDistribution;
+	
+	public void setMaxBins(int maxBins) {
+		this.maxBins = maxBins;
+	}
+	
+	public int getMaxBins() {
+		return maxBins;
+	}
+	
+	public void setMinNumObj(double minNumObj) {
+		this.minNumObj = minNumObj;
+	}
+	
+	public double getMinNumObj() {
+		return minNumObj;
+	}
+	
+	//0 for no limit.
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+	
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	public void setUnpruned(boolean unpruned) {
+		this.unpruned = unpruned;
+	}
+	
+	public boolean getUnpruned() {
+		return unpruned;
+	}
+	
+	//Smaller values prune more, as in J48.
+	public void setConfidenceFactor(double confidenceFactor) {
+		this.confidenceFactor = confidenceFactor;
+	}
+	
+	public double getConfidenceFactor() {
+		return confidenceFactor;
+	}
+	
+	public int numNodes() {
+		return nodeAttribute.length;
+	}
+	
+	@Override
+	public String[] getOptions() {
+		List<String> options = new ArrayList<String>(Arrays.asList("-B", String.valueOf(maxBins),
+				"-M", String.valueOf(minNumObj), "-depth", String.valueOf(maxDepth)));
+		if (unpruned)
+			options.add("-U");
+		else
+			options.addAll(Arrays.asList("-C", String.valueOf(confidenceFactor)));
+		return options.toArray(new String[options.size()]);
+	}
+	
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String option = Utils.getOption('B', options);
+		maxBins = option.isEmpty() ? BinnedInstances.MAX_BINS : Integer.parseInt(option);
+		option = Utils.getOption('M', options);
+		minNumObj = option.isEmpty() ? 2 : Double.parseDouble(option);
+		option = Utils.getOption("depth", options);
+		maxDepth = option.isEmpty() ? 0 : Integer.parseInt(option);
+		unpruned = Utils.getFlag('U', options);
+		option = Utils.getOption('C', options);
+		confidenceFactor = option.isEmpty() ? 0.25 : Double.parseDouble(option);
+	}
+	
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		BinnedInstances binned = new BinnedInstances(data, maxBins, 1);
+		int[] rows = new int[binned.numRows];
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = i;
+		grow(binned, binned.weights, rows, 0, new SplittableRandom(1));
+	}
+	
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		int n = 0;
+		while (nodeAttribute[n] >= 0) {
+			int a = nodeAttribute[n];
+			double value = instance.value(attributeIndices[a]);
+			boolean left;
+			if (Utils.isMissingValue(value))
+				left = nodeMissingLeft[n];
+			else if (nominal[a])
+				left = (int) value == (int) nodeSplit[n];
+			else
+				left = value <= nodeSplit[n];
+			n = left ? nodeLeft[n] : nodeRight[n];
+		}
+		return nodeDistribution[n].clone();
+	}
+	
+	//Grows the tree over the given rows (which it reorders), weighing row r by rowWeights[r]. With
+	//numFeatures > 0 every node looks at random attributes until it has seen numFeatures of them
+	//and found a split, like Weka's RandomTree. Used by HistogramForest to grow its trees from
+	//data binned once.
+	void grow(BinnedInstances data, double[] rowWeights, int[] rows, int numFeatures, SplittableRandom random) {
+		attributeIndices = data.attributeIndices;
+		nominal = data.nominal;
+		
+		double[] histogram = new double[data.histogramSize];
+		count(data, rowWeights, rows, 0, rows.length, histogram);
+		double[] totals = new double[data.numClasses];
+		if (data.numAttributes > 0) {
+			for (int bin = 0; bin <= data.numBins[0]; bin++) {
+				for (int c = 0; c < data.numClasses; c++)
+					totals[c] += histogram[bin * data.numClasses + c];
+			}
+		} else {
+			for (int row : rows)
+				totals[data.classes[row]] += rowWeights[row];
+		}
+		
+		double[] rootHistogram = isLeaf(totals, 0) ? null : histogram;
+		Node root = new Grow(data, rowWeights, rows, numFeatures, 0, rows.length, 0, rootHistogram, totals, random).invoke();
+		if (!unpruned)
+			prune(root);
+		List<Node> nodes = new ArrayList<Node>();
+		number(root, nodes);
+		nodeAttribute = new int[nodes.size()];
+		nodeSplit = new double[nodes.size()];
+		nodeMissingLeft = new boolean[nodes.size()];
+		nodeLeft = new int[nodes.size()];
+		nodeRight = new int[nodes.size()];
+		nodeDistribution = new double[nodes.size()][];
+		for (int n = 0; n < nodes.size(); n++) {
+			Node node = nodes.get(n);
+			nodeAttribute[n] = node.attribute;
+			nodeSplit[n] = node.split;
+			nodeMissingLeft[n] = node.missingLeft;
+			if (node.attribute >= 0) {
+				nodeLeft[n] = node.left.number;
+				nodeRight[n] = node.right.number;
+			} else {
+				nodeDistribution[n] = distribution(node.totals);
+			}
+		}
+	}
+	
+	//Nodes that are pure, at maxDepth, or too light to split into two children of minNumObj.
+	private boolean isLeaf(double[] classTotals, int depth) {
+		if (maxDepth > 0 && depth >= maxDepth)
+			return true;
+		double weight = 0;
+		int classes = 0;
+		for (double classTotal : classTotals) {
+			weight += classTotal;
+			if (classTotal > 0)
+				classes++;
+		}
+		return classes <= 1 || weight < 2 * minNumObj;
+	}
+	
+	//C4.5's pessimistic pruning, without subtree raising: a subtree becomes a leaf when the
+	//leaf's estimated errors are at most the subtree's (plus 0.1). Returns the estimated errors
+	//of what is left.
+	private double prune(Node node) {
+		double weight = 0, most = 0;
+		for (double classTotal : node.totals) {
+			weight += classTotal;
+			most = Math.max(most, classTotal);
+		}
+		double leafErrors = weight - most + addErrors(weight, weight - most);
+		if (node.attribute < 0)
+			return leafErrors;
+		
+		double subtreeErrors = prune(node.left) + prune(node.right);
+		if (leafErrors > subtreeErrors + 0.1)
+			return subtreeErrors;
+		node.attribute = -1;
+		node.left = null;
+		node.right = null;
+		return leafErrors;
+	}
+	
+	//The extra errors to expect on top of the observed ones, as in Weka's Stats.addErrs: the upper
+	//limit of the binomial confidence interval at confidenceFactor.
+	private double addErrors(double weight, double errors) {
+		if (weight <= 0)
+			return 0;
+		if (errors < 1) {
+			double base = weight * (1 - Math.pow(confidenceFactor, 1 / weight));
+			if (errors == 0)
+				return base;
+			return base + errors * (addErrors(weight, 1) - base);
+		}
+		if (errors + 0.5 >= weight)
+			return Math.max(weight - errors, 0);
+		
+		double z = Statistics.normalInverse(1 - confidenceFactor);
+		double f = (errors + 0.5) / weight;
+		double r = (f + (z * z) / (2 * weight) + z * Math.sqrt((f / weight) - (f * f / weight)
+				+ (z * z / (4 * weight * weight)))) / (1 + (z * z) / weight);
+		return (r * weight) - errors;
+	}
+	
+	//Numbers the nodes depth first, so a node's children always come after it.
+	private static void number(Node node, List<Node> nodes) {
+		node.number = nodes.size();
+		nodes.add(node);
+		if (node.attribute >= 0) {
+			number(node.left, nodes);
+			number(node.right, nodes);
+		}
+	}
+	
+	//Adds the class weights of rows[start, end) to the histogram. Large nodes count each
+	//attribute on its own core.
+	private static void count(final BinnedInstances data, final double[] rowWeights, final int[] rows, final int start,
+	final int end, final double[] histogram) {
+		IntStream attributes = IntStream.range(0, data.numAttributes);
+		if (end - start >= PARALLEL_ROWS)
+			attributes = attributes.parallel();
+		attributes.forEach(a -> {
+			byte[] bins = data.bins[a];
+			int offset = data.histogramStart[a];
+			int numClasses = data.numClasses;
+			for (int i = start; i < end; i++) {
+				int row = rows[i];
+				histogram[(offset + (bins[row] & 0xFF)) * numClasses + data.classes[row]] += rowWeights[row];
+			}
+		});
+	}
+	
+	private static class Node {
+		private int attribute = -1;
+		private double split;
+		private boolean missingLeft;
+		private Node left, right;
+		private double[] totals; //Class weights of the training rows that reached the node.
+		private int number;
+	}
+	
+	private static class Split {
+		private int attribute;
+		private int bin; //Numeric: the last bin on the left. Nominal: the value on the left.
+		private boolean missingLeft;
+		private double gain;
+		private double[] leftTotals;
+	}
+	
+	//Grows the subtree over rows[start, end), whose histogram and class totals are given. The
+	//histogram is null for a leaf, and is overwritten otherwise.
+	private class Grow extends RecursiveTask<Node> {
+		private static final long serialVersionUID = 1L;
+		
+		private final BinnedInstances data;
+		private final double[] rowWeights;
+		private final int[] rows;
+		private final int numFeatures;
+		private final int start, end, depth;
+		private final double[] histogram;
+		private final double[] totals;
+		private final SplittableRandom random;
+		
+		Grow(BinnedInstances data, double[] rowWeights, int[] rows, int numFeatures, int start, int end, int depth,
+		double[] histogram, double[] totals, SplittableRandom random) {
+			this.data = data;
+			this.rowWeights = rowWeights;
+			this.rows = rows;
+			this.numFeatures = numFeatures;
+			this.start = start;
+			this.end = end;
+			this.depth = depth;
+			this.histogram = histogram;
+			this.totals = totals;
+			this.random = random;
+		}
+		
+		@Override
+		protected Node compute() {
+			Node node = new Node();
+			node.totals = totals;
+			Split split = histogram == null ? null : bestSplit();
+			if (split == null)
+				return node;
+			node.attribute = split.attribute;
+			node.split = nominal[split.attribute] ? split.bin : data.edges[split.attribute][split.bin];
+			node.missingLeft = split.missingLeft;
+			
+			//Rows going left to the front.
+			byte[] bins = data.bins[split.attribute];
+			int missingBin = data.numBins[split.attribute];
+			int middle = start;
+			for (int i = start; i < end; i++) {
+				int bin = bins[rows[i]] & 0xFF;
+				boolean left = bin == missingBin ? split.missingLeft
+						: nominal[split.attribute] ? bin == split.bin : bin <= split.bin;
+				if (left) {
+					int swap = rows[middle];
+					rows[middle++] = rows[i];
+					rows[i] = swap;
+				}
+			}
+			double[] leftTotals = split.leftTotals;
+			double[] rightTotals = new double[totals.length];
+			for (int c = 0; c < totals.length; c++)
+				rightTotals[c] = Math.max(0, totals[c] - leftTotals[c]);
+			
+			//Leaves need no histogram. When both children need one, only the smaller child is
+			//counted and the larger gets what is left of this node's histogram; when one does, it
+			//is counted into this node's histogram.
+			boolean leftLeaf = isLeaf(leftTotals, depth + 1);
+			boolean rightLeaf = isLeaf(rightTotals, depth + 1);
+			double[] leftHistogram = null, rightHistogram = null;
+			if (!leftLeaf && !rightLeaf) {
+				boolean leftSmaller = middle - start <= end - middle;
+				double[] smallerHistogram = new double[histogram.length];
+				if (leftSmaller)
+					count(data, rowWeights, rows, start, middle, smallerHistogram);
+				else
+					count(data, rowWeights, rows, middle, end, smallerHistogram);
+				for (int i = 0; i < histogram.length; i++)
+					histogram[i] -= smallerHistogram[i];
+				leftHistogram = leftSmaller ? smallerHistogram : histogram;
+				rightHistogram = leftSmaller ? histogram : smallerHistogram;
+			} else if (!leftLeaf) {
+				Arrays.fill(histogram, 0);
+				count(data, rowWeights, rows, start, middle, histogram);
+				leftHistogram = histogram;
+			} else if (!rightLeaf) {
+				Arrays.fill(histogram, 0);
+				count(data, rowWeights, rows, middle, end, histogram);
+				rightHistogram = histogram;
+			}
+			
+			Grow left = new Grow(data, rowWeights, rows, numFeatures, start, middle, depth + 1, leftHistogram,
+					leftTotals, random.split());
+			Grow right = new Grow(data, rowWeights, rows, numFeatures, middle, end, depth + 1, rightHistogram,
+					rightTotals, random.split());
+			if (end - start >= PARALLEL_ROWS) {
+				ForkJoinTask.invokeAll(left, right);
+				node.left = left.join();
+				node.right = right.join();
+			} else {
+				node.left = left.compute();
+				node.right = right.compute();
+			}
+			return node;
+		}
+		
+		private Split bestSplit() {
+			int numAttributes = data.numAttributes;
+			int[] order = new int[numAttributes];
+			for (int a = 0; a < numAttributes; a++)
+				order[a] = a;
+			int window = numFeatures > 0 ? Math.min(numFeatures, numAttributes) : numAttributes;
+			
+			double totalWeight = 0;
+			for (double classTotal : totals)
+				totalWeight += classTotal;
+			
+			Split best = null;
+			for (int tried = 0; tried < numAttributes && (tried < window || best == null); tried++) {
+				if (numFeatures > 0) {
+					int pick = tried + random.nextInt(numAttributes - tried);
+					int swap = order[tried];
+					order[tried] = order[pick];
+					order[pick] = swap;
+				}
+				Split split = bestSplit(order[tried], totalWeight);
+				if (split != null && (best == null || split.gain > best.gain))
+					best = split;
+			}
+			return best;
+		}
+		
+		//The split of the attribute with the highest gain, or null if none leaves minNumObj on both
+		//sides.
+		private Split bestSplit(int a, double totalWeight) {
+			int numClasses = data.numClasses;
+			int offset = data.histogramStart[a] * numClasses;
+			int numBins = data.numBins[a];
+			
+			double[] missing = new double[numClasses];
+			double[] known = new double[numClasses];
+			double missingWeight = 0, knownWeight = 0;
+			for (int c = 0; c < numClasses; c++) {
+				missing[c] = histogram[offset + numBins * numClasses + c];
+				known[c] = Math.max(0, totals[c] - missing[c]);
+				missingWeight += missing[c];
+				knownWeight += known[c];
+			}
+			if (knownWeight <= 0)
+				return null;
+			double knownEntropy = entropy(known, knownWeight);
+			
+			Split best = null;
+			double[] left = new double[numClasses];
+			double[] right = new double[numClasses];
+			double leftWeight = 0;
+			int lastBin = nominal[a] ? numBins : numBins - 1; //Numeric: the last bin can't be on the left.
+			for (int bin = 0; bin < lastBin; bin++) {
+				double binWeight = 0;
+				if (nominal[a]) {
+					leftWeight = 0;
+					for (int c = 0; c < numClasses; c++) {
+						left[c] = histogram[offset + bin * numClasses + c];
+						leftWeight += left[c];
+					}
+				} else {
+					for (int c = 0; c < numClasses; c++) {
+						double weight = histogram[offset + bin * numClasses + c];
+						left[c] += weight;
+						binWeight += weight;
+					}
+					leftWeight += binWeight;
+					if (binWeight <= 0)
+						continue; //Same split as at the last bin that had rows.
+				}
+				double rightWeight = knownWeight - leftWeight;
+				boolean missingLeft = leftWeight > rightWeight;
+				if (leftWeight + (missingLeft ? missingWeight : 0) < minNumObj
+						|| rightWeight + (missingLeft ? 0 : missingWeight) < minNumObj)
+					continue;
+				
+				for (int c = 0; c < numClasses; c++)
+					right[c] = Math.max(0, known[c] - left[c]);
+				double gain = (knownEntropy - entropy(left, leftWeight) - entropy(right, rightWeight)) / totalWeight;
+				if (gain > MIN_GAIN && (best == null || gain > best.gain)) {
+					if (best == null)
+						best = new Split();
+					best.attribute = a;
+					best.bin = bin;
+					best.missingLeft = missingLeft;
+					best.gain = gain;
+					best.leftTotals = left.clone();
+				}
+			}
+			if (best != null && best.missingLeft) {
+				for (int c = 0; c < numClasses; c++)
+					best.leftTotals[c] += missing[c];
+			}
+			return best;
+		}
+	}
+	
+	//The weight times the entropy of the class weights: weight * log(weight) - sum of
+	//w * log(w), in nats.
+	private static double entropy(double[] classWeights, double weight) {
+		if (weight <= 0)
+			return 0;
+		double entropy = weight * Math.log(weight);
+		for (double classWeight : classWeights) {
+			if (classWeight > 0)
+				entropy -= classWeight * Math.log(classWeight);
+		}
+		return entropy;
+	}
+	
+	private static double[] distribution(double[] totals) {
+		double[] distribution = totals.clone();
+		double sum = 0;
+		for (double total : totals)
+			sum += total;
+		if (sum > 0)
+			Utils.normalize(distribution, sum);
+		else
+			Arrays.fill(distribution, 1.0 / distribution.length);
+		return distribution;
+	}
+}
@@ -0,0 +1,371 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.functions.MultilayerPerceptron;
+import weka.classifiers.functions.SMO;
+import weka.classifiers.functions.supportVector.PolyKernel;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.meta.AdaBoostM1;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+//Tries many settings of Main's classifiers in one JVM instead of editing Main and rerunning it.
+//Configurations come from a grid or are drawn at random from each classifier's search space, and
+//run concurrently on a work-stealing pool, all sharing the loaded datasets (Weka's classifiers
+//copy their training data before changing it).
+//
+//Losing configurations are cut off early by successive halving: every configuration is first
+//trained on a small sample of the training data, and only the best of each classifier move on to
+//the next, REDUCTION times larger, sample, until the survivors train on all of it. Which ones
+//survive, and how they are ranked, is decided by accuracy on a validation set held out of the
+//training data, never by the test set. Only the configurations that train on all of it are
+//evaluated on the test set, once each, so their test accuracy is not biased by the selection.
+//Prints, and writes to sweep-<dataset>.csv, every configuration ranked by how far it got and its
+//validation accuracy there.
+//
+//Usage: java HyperparameterSweep [customer|pokemon] [grid|random] [configurations per classifier
+//for random] [classifiers...]  (defaults to customer grid 20 and every classifier)
+//Run Main first so the .arff files exist.
+public class HyperparameterSweep {
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int RUNGS = 3; //How many samples of growing size, the last being all the training data.
+	private static final int REDUCTION = 3; //Each sample is this many times larger and keeps 1/REDUCTION of the configurations...
+	private static final double CUTOFF_MARGIN = 1.0; //...plus any within this many percentage points of the best.
+	private static final int MIN_SAMPLE_SIZE = 100;
+	private static final double VALIDATION_FRACTION = 0.2; //Of the training data, held out to choose the survivors.
+	private static final long SEED = 7641;
+	
+	private interface Factory {
+		Classifier create(double[] values);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		String dataSetName = args.length > 0 ? args[0] : "customer";
+		boolean randomSearch = args.length > 1 && args[1].equals("random");
+		int samples = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		List<String> classifierNames = args.length > 3 ? Arrays.asList(args).subList(3, args.length) : null;
+		
+		boolean pokemon = dataSetName.equals("pokemon");
+		Instances training = Main.loadDataSet(pokemon ? Main.POKEMON_TRAINING_DATA_SET : Main.CUSTOMER_SATISFACTION_TRAINING_DATA_SET);
+		Instances test = Main.loadDataSet(pokemon ? Main.POKEMON_TEST_DATA_SET : Main.CUSTOMER_SATISFACTION_TEST_DATA_SET);
+		training.setClassIndex(training.numAttributes() - 1);
+		test.setClassIndex(test.numAttributes() - 1);
+		//The pokemon file lists each species together, so the samples are taken from a shuffled copy.
+		training = new Instances(training);
+		training.randomize(new Random(SEED));
+		int validationSize = (int) Math.round(training.numInstances() * VALIDATION_FRACTION);
+		final Instances validation = new Instances(training, training.numInstances() - validationSize, validationSize);
+		training = new Instances(training, 0, training.numInstances() - validationSize);
+		
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		SplittableRandom random = new SplittableRandom(SEED);
+		for (Space space : spaces(pokemon)) {
+			if (classifierNames != null && !classifierNames.contains(space.name))
+				continue;
+			if (randomSearch) {
+				for (int i = 0; i < samples; i++)
+					configurations.add(new Configuration(space, space.sample(random)));
+			} else {
+				for (double[] values : space.grid())
+					configurations.add(new Configuration(space, values));
+			}
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(THREADS);
+		long startTime = System.nanoTime();
+		List<Configuration> alive = configurations;
+		for (int rung = 0; rung < RUNGS; rung++) {
+			int divisor = (int) Math.pow(REDUCTION, RUNGS - 1 - rung);
+			int size = Math.min(training.numInstances(), Math.max(MIN_SAMPLE_SIZE, training.numInstances() / divisor));
+			final Instances sample = new Instances(training, 0, size);
+			final int rungNumber = rung;
+			final boolean last = rung == RUNGS - 1;
+			
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for (final Configuration configuration : alive)
+				tasks.add(pool.submit(() -> configuration.run(sample, validation, rungNumber, last)));
+			for (ForkJoinTask<?> task : tasks)
+				task.join();
+			
+			int before = alive.size();
+			if (rung < RUNGS - 1)
+				alive = survivors(alive);
+			System.out.println("Sample " + (rung + 1) + " of " + RUNGS + ": " + size + " rows, " + before
+					+ " configurations, " + (rung < RUNGS - 1 ? alive.size() + " kept" : "done"));
+		}
+		
+		//The finished configurations are chosen, so only now is the test set looked at.
+		final Instances testDataSet = test;
+		List<ForkJoinTask<?>> tests = new ArrayList<ForkJoinTask<?>>();
+		for (final Configuration configuration : alive)
+			tests.add(pool.submit(() -> configuration.test(testDataSet)));
+		for (ForkJoinTask<?> task : tests)
+			task.join();
+		pool.shutdown();
+		long wallTime = System.nanoTime() - startTime;
+		
+		configurations.sort(Comparator.comparingInt((Configuration c) -> c.rung).reversed()
+				.thenComparing(Comparator.comparingDouble((Configuration c) -> c.accuracy).reversed()));
+		printTable(configurations);
+		writeCsv(new File("sweep-" + dataSetName + ".csv"), configurations);
+		
+		long taskTime = 0;
+		for (Configuration configuration : configurations)
+			taskTime += configuration.totalTime;
+		System.out.println("Sweep wall time: " + wallTime / 1000000000.0 + "s, summed task time: "
+				+ taskTime / 1000000000.0 + "s, summed task time / wall time: " + (double) taskTime / wallTime);
+	}
+	
+	//Keeps the best 1/REDUCTION of every classifier's configurations, and any close to its best.
+	private static List<Configuration> survivors(List<Configuration> configurations) {
+		Map<Space, List<Configuration>> bySpace = new LinkedHashMap<Space, List<Configuration>>();
+		for (Configuration configuration : configurations)
+			bySpace.computeIfAbsent(configuration.space, space -> new ArrayList<Configuration>()).add(configuration);
+		
+		List<Configuration> survivors = new ArrayList<Configuration>();
+		for (List<Configuration> group : bySpace.values()) {
+			group.sort(Comparator.comparingDouble((Configuration c) -> c.accuracy).reversed());
+			int keep = (group.size() + REDUCTION - 1) / REDUCTION;
+			double cutoff = group.get(0).accuracy - CUTOFF_MARGIN;
+			for (int i = 0; i < group.size(); i++) {
+				Configuration configuration = group.get(i);
+				if (configuration.error == null && (i < keep || configuration.accuracy >= cutoff))
+					survivors.add(configuration);
+			}
+		}
+		return survivors;
+	}
+	
+	private static void printTable(List<Configuration> configurations) {
+		System.out.println(String.format("%4s  %-15s %-45s %7s %10s %9s %10s %10s",
+				"rank", "classifier", "settings", "rows", "validation", "test", "train ms", "test ms"));
+		for (int i = 0; i < configurations.size(); i++) {
+			Configuration c = configurations.get(i);
+			System.out.println(String.format("%4d  %-15s %-45s %7d %10s %9s %10.1f %10.1f", i + 1, c.space.name,
+					c.settings(), c.rows, c.accuracy < 0 ? "failed" : String.format("%.2f", c.accuracy),
+					Double.isNaN(c.testAccuracy) ? (c.error == null ? "-" : "failed") : String.format("%.2f", c.testAccuracy),
+					c.trainTime / 1000000.0, c.testTime / 1000000.0));
+		}
+	}
+	
+	private static void writeCsv(File file, List<Configuration> configurations) throws IOException {
+		BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
+		try {
+			bufferedWriter.write("rank,classifier,settings,rows,validation_accuracy,test_accuracy,train_ms,test_ms,error");
+			bufferedWriter.newLine();
+			for (int i = 0; i < configurations.size(); i++) {
+				Configuration c = configurations.get(i);
+				bufferedWriter.write((i + 1) + "," + c.space.name + "," + c.settings().replace(",", ";") + ","
+						+ c.rows + "," + c.accuracy + "," + (Double.isNaN(c.testAccuracy) ? "" : c.testAccuracy)
+						+ "," + c.trainTime / 1000000.0 + "," + c.testTime / 1000000.0
+						+ "," + (c.error == null ? "" : c.error.replace(',', ' ')));
+				bufferedWriter.newLine();
+			}
+		} finally {
+			bufferedWriter.close();
+		}
+	}
+	
+	//The settings of Main's classifiers that used to be tuned by hand.
+	private static List<Space> spaces(final boolean pokemon) {
+		List<Space> spaces = new ArrayList<Space>();
+		spaces.add(new Space("decision tree", values -> {
+			J48 decisionTree = Main.createDecisionTree();
+			decisionTree.setConfidenceFactor((float) values[0]);
+			decisionTree.setMinNumObj((int) values[1]);
+			return decisionTree;
+		}, new Parameter("confidence", false, false, 0.05, 0.1, 0.25, 0.5),
+			new Parameter("min leaf", true, true, 1, 2, 5, 10, 20)));
+		
+		spaces.add(new Space("knn", values -> {
+			IBk knn = Main.createKNN();
+			knn.setKNN((int) values[0]);
+			return knn;
+		}, new Parameter("k", true, true, 1, 3, 5, 10, 20, 50)));
+		
+		spaces.add(new Space("neural network", values -> {
+			MultilayerPerceptron neuralNetwork = Main.createNeuralNetwork();
+			neuralNetwork.setTrainingTime((int) values[0]);
+			neuralNetwork.setLearningRate(values[1]);
+			return neuralNetwork;
+		}, new Parameter("epochs", true, true, 100, 250, 500, 1000),
+			new Parameter("learning rate", false, true, 0.05, 0.1, 0.3)));
+		
+		spaces.add(new Space("boosting", values -> {
+			AdaBoostM1 boosting = Main.createBoosting();
+			boosting.setNumIterations((int) values[0]);
+			RandomForest randomForest = new RandomForest();
+			randomForest.setNumIterations((int) values[1]);
+			randomForest.setMaxDepth((int) values[2]);
+			boosting.setClassifier(randomForest);
+			return boosting;
+		}, new Parameter("iterations", true, true, 10, 25, 50, 100),
+			new Parameter("forest size", true, false, 5, 10),
+			new Parameter("forest depth", true, false, 2, 3, 5)));
+		
+		spaces.add(new Space("svm", values -> {
+			SMO svm = pokemon ? Main.createPokemonSVM() : Main.createCustomerSatisfactionSVM();
+			PolyKernel polyKernel = new PolyKernel();
+			polyKernel.setExponent(values[0]);
+			svm.setKernel(polyKernel);
+			svm.setC(values[1]);
+			return svm;
+		}, new Parameter("exponent", true, false, 1, 2, 3),
+			new Parameter("c", false, true, 0.5, 1, 2)));
+		return spaces;
+	}
+	
+	//One setting to search. Random search draws from the range the grid values span.
+	private static class Parameter {
+		private final String name;
+		private final boolean integer;
+		private final boolean logScale;
+		private final double[] grid;
+		
+		Parameter(String name, boolean integer, boolean logScale, double... grid) {
+			this.name = name;
+			this.integer = integer;
+			this.logScale = logScale;
+			this.grid = grid;
+		}
+		
+		double sample(SplittableRandom random) {
+			double min = grid[0], max = grid[grid.length - 1];
+			double value;
+			if (logScale)
+				value = Math.exp(Math.log(min) + random.nextDouble() * (Math.log(max) - Math.log(min)));
+			else
+				value = min + random.nextDouble() * (max - min);
+			return integer ? Math.round(value) : value;
+		}
+		
+		String format(double value) {
+			return integer ? String.valueOf((long) value) : String.format("%.3g", value);
+		}
+	}
+	
+	private static class Space {
+		private final String name;
+		private final Factory factory;
+		private final Parameter[] parameters;
+		
+		Space(String name, Factory factory, Parameter... parameters) {
+			this.name = name;
+			this.factory = factory;
+			this.parameters = parameters;
+		}
+		
+		//Every combination of the parameters' grid values.
+		List<double[]> grid() {
+			List<double[]> combinations = new ArrayList<double[]>();
+			combinations.add(new double[parameters.length]);
+			for (int p = 0; p < parameters.length; p++) {
+				List<double[]> extended = new ArrayList<double[]>();
+				for (double[] combination : combinations) {
+					for (double value : parameters[p].grid) {
+						double[] values = combination.clone();
+						values[p] = value;
+						extended.add(values);
+					}
+				}
+				combinations = extended;
+			}
+			return combinations;
+		}
+		
+		double[] sample(SplittableRandom random) {
+			double[] values = new double[parameters.length];
+			for (int p = 0; p < parameters.length; p++)
+				values[p] = parameters[p].sample(random);
+			return values;
+		}
+	}
+	
+	//A classifier with one set of values, and how it did on the largest sample it got to: its
+	//validation accuracy and, if that was all of the training data, its test accuracy.
+	private static class Configuration {
+		private final Space space;
+		private final double[] values;
+		private int rung = -1;
+		private int rows;
+		private double accuracy;
+		private double testAccuracy = Double.NaN;
+		private long trainTime, testTime, totalTime;
+		private String error;
+		private Classifier trained; //Kept from the last sample, and the sample, until it has been tested.
+		private Instances trainedOn;
+		
+		Configuration(Space space, double[] values) {
+			this.space = space;
+			this.values = values;
+		}
+		
+		void run(Instances training, Instances validation, int rung, boolean keep) {
+			this.rung = rung;
+			rows = training.numInstances();
+			trainTime = testTime = 0;
+			try {
+				Classifier classifier = space.factory.create(values);
+				long startTime = System.nanoTime();
+				classifier.buildClassifier(training);
+				trainTime = System.nanoTime() - startTime;
+				
+				startTime = System.nanoTime();
+				Evaluation evaluation = new Evaluation(training);
+				evaluation.evaluateModel(classifier, validation);
+				testTime = System.nanoTime() - startTime;
+				accuracy = 100.0 * evaluation.correct() / evaluation.numInstances();
+				if (keep) {
+					trained = classifier;
+					trainedOn = training;
+				}
+			} catch (Exception e) {
+				error = e.toString();
+				accuracy = -1;
+			}
+			totalTime += trainTime + testTime;
+		}
+		
+		void test(Instances test) {
+			if (trained == null)
+				return;
+			try {
+				long startTime = System.nanoTime();
+				Evaluation evaluation = new Evaluation(trainedOn);
+				evaluation.evaluateModel(trained, test);
+				totalTime += System.nanoTime() - startTime;
+				testAccuracy = 100.0 * evaluation.correct() / evaluation.numInstances();
+			} catch (Exception e) {
+				error = e.toString();
+			}
+			trained = null;
+			trainedOn = null;
+		}
+		
+		String settings() {
+			StringBuilder settings = new StringBuilder();
+			for (int p = 0; p < values.length; p++) {
+				if (p > 0)
+					settings.append(", ");
+				settings.append(space.parameters[p].name).append('=').append(space.parameters[p].format(values[p]));
+			}
+			return settings.toString();
+		}
+	}
+}
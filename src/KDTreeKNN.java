@@ -0,0 +1,459 @@
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+//K nearest neighbours that gives the same answers as IBk with its default settings, but keeps the
+//training rows in a KD-tree over flat double[] arrays, so a query only visits the few leaves near
+//it instead of scanning every training row. Distances are computed the way IBk's
+//EuclideanDistance computes them: numeric attributes are normalised by their range, nominal
+//attributes differ by 0 or 1, and missing values follow the same rules. Ties with the kth
+//neighbour are all counted, also like IBk, and a query that is itself a training row finds that
+//row at distance 0 (IBk searches a copy of its training data, so it never skips one). IBk widens
+//the numeric ranges with every query it sees; since the tree holds the raw values, that only
+//changes the normalisation and the tree stays valid.
+public class KDTreeKNN extends AbstractClassifier {
+	private static final long serialVersionUID = 1L;
+	private static final int LEAF_SIZE = 16;
+	
+	private int k = 1;
+	
+	private int dimensions;
+	private int[] attributeIndices; //The attribute behind each dimension (every one but the class).
+	private boolean[] nominal;
+	private boolean nominalClass;
+	private int numClasses;
+	private Ranges ranges;
+	
+	//Training rows, dimensions values each. The first numIndexed rows are in tree order, the
+	//rest have missing values, can't be placed in the tree and are checked one by one.
+	private double[] points;
+	private double[] classValues;
+	private double[] weights;
+	private int numRows;
+	private int numIndexed;
+	
+	//The tree. Node n covers rows nodeStart[n] to nodeEnd[n] and the box nodeLow/nodeHigh
+	//(dimensions values per node). Leaves have nodeLeft[n] == -1.
+	private int numNodes;
+	private int[] nodeStart;
+	private int[] nodeEnd;
+	private int[] nodeLeft;
+	private int[] nodeRight;
+	private int[] nodeSplitDimension;
+	private double[] nodeSplitValue;
+	private double[] nodeLow;
+	private double[] nodeHigh;
+	
+	public void setKNN(int k) {
+		this.k = k;
+	}
+	
+	public int getKNN() {
+		return k;
+	}
+	
+	@Override
+	public String[] getOptions() {
+		return new String[] { "-K", String.valueOf(k) };
+	}
+	
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String knn = Utils.getOption('K', options);
+		k = knn.isEmpty() ? 1 : Integer.parseInt(knn);
+	}
+	
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		int classIndex = data.classIndex();
+		if (classIndex < 0)
+			throw new IllegalArgumentException("The class attribute is not set.");
+		
+		dimensions = data.numAttributes() - 1;
+		attributeIndices = new int[dimensions];
+		nominal = new boolean[dimensions];
+		for (int a = 0, d = 0; a < data.numAttributes(); a++) {
+			if (a != classIndex) {
+				attributeIndices[d] = a;
+				nominal[d] = data.attribute(a).isNominal();
+				d++;
+			}
+		}
+		nominalClass = data.classAttribute().isNominal();
+		numClasses = nominalClass ? data.numClasses() : 1;
+		
+		//Rows without a class are dropped, like IBk does. Complete rows go first.
+		numRows = 0;
+		numIndexed = 0;
+		for (Instance instance : data) {
+			if (!instance.classIsMissing()) {
+				numRows++;
+				if (!instance.hasMissingValue())
+					numIndexed++;
+			}
+		}
+		points = new double[numRows * dimensions];
+		classValues = new double[numRows];
+		weights = new double[numRows];
+		ranges = new Ranges(dimensions);
+		int nextIndexed = 0, nextUnindexed = numIndexed;
+		for (Instance instance : data) {
+			if (instance.classIsMissing())
+				continue;
+			int row = instance.hasMissingValue() ? nextUnindexed++ : nextIndexed++;
+			for (int d = 0; d < dimensions; d++)
+				points[row * dimensions + d] = instance.value(attributeIndices[d]);
+			classValues[row] = instance.classValue();
+			weights[row] = instance.weight();
+			ranges.widen(points, row * dimensions, nominal);
+		}
+		
+		//Median splits stop at LEAF_SIZE rows, so every leaf holds at least LEAF_SIZE / 2.
+		int maxNodes = 2 * (numIndexed / (LEAF_SIZE / 2)) + 1;
+		numNodes = 0;
+		nodeStart = new int[maxNodes];
+		nodeEnd = new int[maxNodes];
+		nodeLeft = new int[maxNodes];
+		nodeRight = new int[maxNodes];
+		nodeSplitDimension = new int[maxNodes];
+		nodeSplitValue = new double[maxNodes];
+		nodeLow = new double[maxNodes * dimensions];
+		nodeHigh = new double[maxNodes * dimensions];
+		build(0, numIndexed);
+	}
+	
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		double[] query = values(instance);
+		return distribution(query, widenRanges(query));
+	}
+	
+	//Widens the ranges with the whole batch first, in order, so every query sees the same ranges
+	//it would have seen one at a time, then answers the queries on all cores.
+	@Override
+	public double[][] distributionsForInstances(final Instances batch) throws Exception {
+		final double[][] queries = new double[batch.numInstances()][];
+		final Ranges[] queryRanges = new Ranges[queries.length];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = values(batch.instance(i));
+			queryRanges[i] = widenRanges(queries[i]);
+		}
+		
+		final double[][] distributions = new double[queries.length][];
+		IntStream.range(0, queries.length).parallel().forEach(i ->
+			distributions[i] = distribution(queries[i], queryRanges[i]));
+		return distributions;
+	}
+	
+	@Override
+	public boolean implementsMoreEfficientBatchPrediction() {
+		return true;
+	}
+	
+	private double[] values(Instance instance) {
+		double[] query = new double[dimensions];
+		for (int d = 0; d < dimensions; d++)
+			query[d] = instance.value(attributeIndices[d]);
+		return query;
+	}
+	
+	//Ranges are copied on write, so queries already running keep the ranges they started with.
+	private synchronized Ranges widenRanges(double[] query) {
+		if (ranges.covers(query, nominal))
+			return ranges;
+		Ranges widened = ranges.copy();
+		widened.widen(query, 0, nominal);
+		ranges = widened;
+		return widened;
+	}
+	
+	//Same as IBk's makeDistribution without distance weighting.
+	private double[] distribution(double[] query, Ranges ranges) {
+		Neighbours neighbours = new Neighbours(k);
+		if (numIndexed > 0)
+			search(0, query, ranges, neighbours);
+		for (int row = numIndexed; row < numRows; row++)
+			offer(row, query, ranges, neighbours);
+		
+		double[] distribution = new double[numClasses];
+		double total = 0;
+		if (nominalClass) {
+			for (int c = 0; c < numClasses; c++)
+				distribution[c] = 1.0 / Math.max(1, numRows);
+			total = (double) numClasses / Math.max(1, numRows);
+		}
+		for (int i = 0; i < neighbours.count; i++) {
+			int row = neighbours.rows[i];
+			if (nominalClass)
+				distribution[(int) classValues[row]] += weights[row];
+			else
+				distribution[0] += classValues[row] * weights[row];
+			total += weights[row];
+		}
+		if (total > 0)
+			Utils.normalize(distribution, total);
+		return distribution;
+	}
+	
+	private void search(int node, double[] query, Ranges ranges, Neighbours neighbours) {
+		if (lowerBound(node, query, ranges) > neighbours.bound())
+			return;
+		
+		if (nodeLeft[node] < 0) {
+			for (int row = nodeStart[node]; row < nodeEnd[node]; row++)
+				offer(row, query, ranges, neighbours);
+			return;
+		}
+		
+		//Visit the side the query is on first, so the bound shrinks before the other side.
+		double value = query[nodeSplitDimension[node]];
+		if (Utils.isMissingValue(value) || value < nodeSplitValue[node]) {
+			search(nodeLeft[node], query, ranges, neighbours);
+			search(nodeRight[node], query, ranges, neighbours);
+		} else {
+			search(nodeRight[node], query, ranges, neighbours);
+			search(nodeLeft[node], query, ranges, neighbours);
+		}
+	}
+	
+	private void offer(int row, double[] query, Ranges ranges, Neighbours neighbours) {
+		double bound = neighbours.bound();
+		double distance = distance(query, row, ranges, bound);
+		if (distance <= bound)
+			neighbours.add(row, distance);
+	}
+	
+	//Squared distance as EuclideanDistance sums it, attribute by attribute. Stops early once it
+	//is past the cutoff.
+	private double distance(double[] query, int row, Ranges ranges, double cutoff) {
+		double sum = 0;
+		int offset = row * dimensions;
+		for (int d = 0; d < dimensions; d++) {
+			double a = query[d];
+			double b = points[offset + d];
+			double difference;
+			if (nominal[d]) {
+				difference = Utils.isMissingValue(a) || Utils.isMissingValue(b) || (int) a != (int) b ? 1 : 0;
+			} else if (Utils.isMissingValue(a) || Utils.isMissingValue(b)) {
+				if (Utils.isMissingValue(a) && Utils.isMissingValue(b)) {
+					difference = 1;
+				} else {
+					difference = ranges.norm(Utils.isMissingValue(a) ? b : a, d);
+					if (difference < 0.5)
+						difference = 1.0 - difference;
+				}
+			} else {
+				difference = ranges.norm(a, d) - ranges.norm(b, d);
+			}
+			sum += difference * difference;
+			if (sum > cutoff)
+				return sum;
+		}
+		return sum;
+	}
+	
+	//The smallest squared distance from the query to any row in the node's box. Tree rows have
+	//no missing values, so a missing numeric query value is at least 0.5 away from all of them.
+	private double lowerBound(int node, double[] query, Ranges ranges) {
+		double sum = 0;
+		int offset = node * dimensions;
+		for (int d = 0; d < dimensions; d++) {
+			double a = query[d];
+			double low = nodeLow[offset + d];
+			double high = nodeHigh[offset + d];
+			double difference = 0;
+			if (nominal[d]) {
+				if (Utils.isMissingValue(a) || a < low || a > high)
+					difference = 1;
+			} else if (Utils.isMissingValue(a)) {
+				difference = 0.5;
+			} else if (a < low) {
+				difference = ranges.norm(low, d) - ranges.norm(a, d);
+			} else if (a > high) {
+				difference = ranges.norm(a, d) - ranges.norm(high, d);
+			}
+			sum += difference * difference;
+		}
+		return sum;
+	}
+	
+	private int build(int start, int end) {
+		int node = numNodes++;
+		nodeStart[node] = start;
+		nodeEnd[node] = end;
+		nodeLeft[node] = -1;
+		
+		int offset = node * dimensions;
+		Arrays.fill(nodeLow, offset, offset + dimensions, Double.POSITIVE_INFINITY);
+		Arrays.fill(nodeHigh, offset, offset + dimensions, Double.NEGATIVE_INFINITY);
+		for (int row = start; row < end; row++) {
+			for (int d = 0; d < dimensions; d++) {
+				double value = points[row * dimensions + d];
+				nodeLow[offset + d] = Math.min(nodeLow[offset + d], value);
+				nodeHigh[offset + d] = Math.max(nodeHigh[offset + d], value);
+			}
+		}
+		if (end - start <= LEAF_SIZE)
+			return node;
+		
+		//Split on the dimension with the widest normalised spread; a nominal dimension counts
+		//as fully spread while it still has more than one value.
+		int splitDimension = -1;
+		double widest = 0;
+		for (int d = 0; d < dimensions; d++) {
+			double low = nodeLow[offset + d], high = nodeHigh[offset + d];
+			double spread = nominal[d] ? (high > low ? 1 : 0) : ranges.norm(high, d) - ranges.norm(low, d);
+			if (spread > widest) {
+				widest = spread;
+				splitDimension = d;
+			}
+		}
+		if (splitDimension < 0)
+			return node; //Every row is the same.
+		
+		int middle = (start + end) >>> 1;
+		select(start, end, middle, splitDimension);
+		nodeSplitDimension[node] = splitDimension;
+		nodeSplitValue[node] = points[middle * dimensions + splitDimension];
+		nodeLeft[node] = build(start, middle);
+		nodeRight[node] = build(middle, end);
+		return node;
+	}
+	
+	//Reorders rows start to end so the row at nth has the value it would have if they were sorted
+	//on the dimension, with no larger value before it and no smaller one after it.
+	private void select(int start, int end, int nth, int dimension) {
+		int low = start, high = end - 1;
+		while (high > low) {
+			double pivot = points[((low + high) >>> 1) * dimensions + dimension];
+			int i = low, j = high;
+			while (i <= j) {
+				while (points[i * dimensions + dimension] < pivot)
+					i++;
+				while (points[j * dimensions + dimension] > pivot)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+			if (nth <= j)
+				high = j;
+			else if (nth >= i)
+				low = i;
+			else
+				return;
+		}
+	}
+	
+	private void swap(int a, int b) {
+		for (int d = 0; d < dimensions; d++) {
+			double value = points[a * dimensions + d];
+			points[a * dimensions + d] = points[b * dimensions + d];
+			points[b * dimensions + d] = value;
+		}
+		double classValue = classValues[a];
+		classValues[a] = classValues[b];
+		classValues[b] = classValue;
+		double weight = weights[a];
+		weights[a] = weights[b];
+		weights[b] = weight;
+	}
+	
+	//Numeric attribute ranges, normalised the same way as NormalizableDistance.norm.
+	private static class Ranges implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		private final double[] min;
+		private final double[] max;
+		
+		Ranges(int dimensions) {
+			min = new double[dimensions];
+			max = new double[dimensions];
+			Arrays.fill(min, Double.NaN);
+			Arrays.fill(max, Double.NaN);
+		}
+		
+		private Ranges(double[] min, double[] max) {
+			this.min = min;
+			this.max = max;
+		}
+		
+		Ranges copy() {
+			return new Ranges(min.clone(), max.clone());
+		}
+		
+		double norm(double value, int d) {
+			if (Double.isNaN(min[d]) || max[d] == min[d])
+				return 0;
+			return (value - min[d]) / (max[d] - min[d]);
+		}
+		
+		boolean covers(double[] values, boolean[] nominal) {
+			for (int d = 0; d < min.length; d++) {
+				double value = values[d];
+				if (!nominal[d] && !Utils.isMissingValue(value)
+						&& (Double.isNaN(min[d]) || value < min[d] || value > max[d]))
+					return false;
+			}
+			return true;
+		}
+		
+		void widen(double[] values, int offset, boolean[] nominal) {
+			for (int d = 0; d < min.length; d++) {
+				double value = values[offset + d];
+				if (nominal[d] || Utils.isMissingValue(value))
+					continue;
+				if (Double.isNaN(min[d])) {
+					min[d] = value;
+					max[d] = value;
+				} else {
+					min[d] = Math.min(min[d], value);
+					max[d] = Math.max(max[d], value);
+				}
+			}
+		}
+	}
+	
+	//The nearest rows found so far, sorted by distance. Holds k rows, plus any rows tied with the
+	//kth.
+	private static class Neighbours {
+		private final int k;
+		private int[] rows;
+		private double[] distances;
+		private int count;
+		
+		Neighbours(int k) {
+			this.k = Math.max(1, k);
+			rows = new int[Math.max(1, 2 * k)];
+			distances = new double[rows.length];
+		}
+		
+		double bound() {
+			return count < k ? Double.POSITIVE_INFINITY : distances[k - 1];
+		}
+		
+		//The distance must be at most bound().
+		void add(int row, double distance) {
+			if (count == rows.length) {
+				rows = Arrays.copyOf(rows, 2 * count);
+				distances = Arrays.copyOf(distances, 2 * count);
+			}
+			int i = count++;
+			while (i > 0 && distances[i - 1] > distance) {
+				rows[i] = rows[i - 1];
+				distances[i] = distances[i - 1];
+				i--;
+			}
+			rows[i] = row;
+			distances[i] = distance;
+			
+			//Rows past the kth only stay while they tie with it.
+			while (count > k && distances[count - 1] > distances[k - 1])
+				count--;
+		}
+	}
+}
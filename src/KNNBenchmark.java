@@ -0,0 +1,81 @@
+import weka.classifiers.Classifier;
+import weka.classifiers.lazy.IBk;
+import weka.core.Instances;
+
+//Compares KDTreeKNN with IBk on generated data of growing size: build time, time per query, and
+//how many predictions differ (should be none). IBk scans every training row per query, so at the
+//larger sizes it only answers the first IBK_QUERIES test rows; per query times stay comparable.
+//The two largest sizes need a large heap (around -Xmx8g for 10^7 customers).
+//
+//Usage: java KNNBenchmark [training rows...]  (defaults to 10^4 10^5 10^6 10^7)
+public class KNNBenchmark {
+	private static final long SEED = 7641;
+	private static final int IBK_QUERIES = 200;
+	
+	public static void main(String[] args) throws Exception {
+		int[] sizes = { 10000, 100000, 1000000, 10000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		
+		System.out.println(String.format("%-22s %10s %-10s %10s %12s %10s", 
+				"dataset", "rows", "classifier", "build ms", "us/query", "mismatches"));
+		for (int size : sizes) {
+			Instances[] customers = CustomerSatisfactionARFFGenerator.generateInstances(size, SEED);
+			compare("customer satisfaction", customers[0], customers[1]);
+			customers = null;
+			
+			Instances[] pokemon = PokemonARFFGenerator.generateInstances(Math.max(1, size / 34), SEED);
+			compare("pokemon", pokemon[0], pokemon[1]);
+		}
+	}
+	
+	private static void compare(String dataSetName, Instances training, Instances test) throws Exception {
+		IBk ibk = Main.createKNN();
+		KDTreeKNN kdTree = Main.createKDTreeKNN();
+		
+		long buildTime = build(ibk, training);
+		Instances ibkQueries = new Instances(test, 0, Math.min(IBK_QUERIES, test.numInstances()));
+		long startTime = System.nanoTime();
+		double[] ibkPredictions = new double[ibkQueries.numInstances()];
+		for (int i = 0; i < ibkPredictions.length; i++)
+			ibkPredictions[i] = ibk.classifyInstance(ibkQueries.instance(i));
+		print(dataSetName, training, "IBk", buildTime, System.nanoTime() - startTime, ibkPredictions.length, "");
+		
+		buildTime = build(kdTree, training);
+		startTime = System.nanoTime();
+		double[][] distributions = kdTree.distributionsForInstances(test);
+		long queryTime = System.nanoTime() - startTime;
+		int mismatches = 0;
+		for (int i = 0; i < ibkPredictions.length; i++) {
+			if (ibkPredictions[i] != maxIndex(distributions[i]))
+				mismatches++;
+		}
+		print(dataSetName, training, "KD-tree", buildTime, queryTime, test.numInstances(), 
+				mismatches + "/" + ibkPredictions.length);
+	}
+	
+	private static long build(Classifier classifier, Instances training) throws Exception {
+		long startTime = System.nanoTime();
+		classifier.buildClassifier(training);
+		return System.nanoTime() - startTime;
+	}
+	
+	//Like classifyInstance, the first class wins ties.
+	private static int maxIndex(double[] distribution) {
+		int best = 0;
+		for (int i = 1; i < distribution.length; i++) {
+			if (distribution[i] > distribution[best])
+				best = i;
+		}
+		return best;
+	}
+	
+	private static void print(String dataSetName, Instances training, String classifierName, long buildTime, 
+	long queryTime, int queries, String mismatches) {
+		System.out.println(String.format("%-22s %10d %-10s %10.1f %12.1f %10s", dataSetName, 
+				training.numInstances(), classifierName, buildTime / 1000000.0, queryTime / 1000.0 / queries, mismatches));
+	}
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Counts latencies (in nanoseconds) in buckets no wider than 1/32 of their value, so percentiles are
+//accurate to about 3% while the histogram stays a fixed 16KB. Recording is lock free and can be
+//done from any number of threads.
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int EXACT_VALUES = 2 * SUB_BUCKETS; //Values below this get a bucket each.
+	
+	private final AtomicLongArray counts = new AtomicLongArray(2048);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value))
+			;
+	}
+	
+	public long count() {
+		return count.get();
+	}
+	
+	//The latency that the given fraction (e.g. 0.99) of the recorded latencies are at or below,
+	//rounded up to the end of its bucket.
+	public long percentile(double fraction) {
+		long target = (long) Math.ceil(fraction * count.get());
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= Math.max(1, target))
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+	
+	public double mean() {
+		return (double) total.get() / Math.max(1, count.get());
+	}
+	
+	//e.g. "p50 1.234 ms, p99 5.678 ms, ..."
+	public String summary() {
+		return String.format("count %d, mean %.3f ms, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+				count(), mean() / 1000000.0, percentile(0.5) / 1000000.0, percentile(0.9) / 1000000.0,
+				percentile(0.99) / 1000000.0, percentile(0.999) / 1000000.0, max.get() / 1000000.0);
+	}
+	
+	//Small values are counted exactly; larger ones by their top SUB_BUCKET_BITS + 1 bits.
+	private static int bucket(long value) {
+		if (value < EXACT_VALUES)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+	
+	private static long upperBound(int bucket) {
+		if (bucket < EXACT_VALUES)
+			return bucket;
+		int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+		long top = (bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -3,14 +3,23 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.classifiers.functions.MultilayerPerceptron;
 import weka.classifiers.functions.SMO;
 import weka.classifiers.functions.supportVector.PolyKernel;
 import weka.classifiers.lazy.IBk;
 import weka.classifiers.meta.AdaBoostM1;
+import weka.classifiers.trees.HoeffdingTree;
 import weka.classifiers.trees.J48;
 import weka.classifiers.trees.RandomForest;
 import weka.core.Instances;
@@ -26,78 +35,322 @@ public class Main {
 	private static final boolean DO_CUSTOMER_SATISFACTION_DATASET = true; //Create and test classifier for customer satisfaction dataset?
 	private static final boolean TEST_AGAINST_TEST_SET = true;  //True = test against test dataset, false = test against training dataset.
 	private static final int TEST_RUNS = 1; //How many times to generate new data, create a classifier, and test the classifier.
+	private static final boolean CROSS_VALIDATION = false; //Generate the data once and cross-validate on the training set (folds run concurrently) instead of TEST_RUNS runs?
+	private static final int CROSS_VALIDATION_FOLDS = 10;
 	
 	private static final int ENTRIES_PER_POKEMON = 25; //How much data to create for the pokemon dataset (total data = this value * 34).
 	private static final int TOTAL_CUSTOMER_ENTRIES = 1000; //How much data to create for the customer satisfaction dataset.
+	private static final boolean PARALLEL_GENERATION = false; //Generate the data in seeded shards across all cores?
+	private static final long GENERATION_SEED = 7641; //Seed for parallel generation (run i uses GENERATION_SEED + i).
+	private static final boolean IN_MEMORY_PIPELINE = false; //Generate straight into Instances instead of writing and re-reading the .arff files?
+	private static final boolean COLUMNAR_DATASETS = false; //Keep generated rows in byte/float columns instead of one DenseInstance each (needs IN_MEMORY_PIPELINE)?
+	private static final boolean WRITE_GENERATED_DATA = true; //When generating in memory, still write the .arff files in the background?
+	private static final boolean USE_BINARY_CACHE = false; //Keep a binary copy of each generated dataset per seed and size, and skip generating and parsing when it exists (needs PARALLEL_GENERATION)?
+	private static final boolean STREAMING_TRAINING = false; //Train updateable classifiers row by row from the .arff files instead of loading them (with IN_MEMORY_PIPELINE, needs WRITE_GENERATED_DATA)?
+	private static final int STREAMING_KNN_WINDOW = 10000; //How many of the latest training rows KNN keeps in streaming mode.
+	private static final boolean STREAMING_NAIVE_BAYES = false; //Also train and test naive bayes in streaming mode?
 	
 	private static final int NEURAL_NET_TRAINING_TIME = 500; 
+	private static final boolean MINI_BATCH_NEURAL_NETWORK = false; //Train the neural network on flat arrays in mini-batches on all cores instead of with MultilayerPerceptron?
+	private static final int NEURAL_NET_MINI_BATCH_SIZE = 8;
+	private static final double NEURAL_NET_MINI_BATCH_LEARNING_RATE = 1.0; //The averaged mini-batch gradient needs a larger rate than MultilayerPerceptron's 0.1 to match its accuracy in as many epochs.
 	private static final int K = 10; //K in KNN
+	private static final boolean KD_TREE_KNN = false; //Answer KNN queries from a KD-tree instead of IBk's linear scan (same predictions)?
 	private static final int BOOSTING_ITERATIONS = 100;
+	private static final boolean HISTOGRAM_TREES = false; //Grow the decision tree and boosting's forests from binned histograms instead of J48 and RandomForest?
+	private static final boolean SVM_KERNEL_CACHE = false; //Cache whole svm kernel rows, computed on all cores, and print the hit rate?
+	private static final long SVM_KERNEL_CACHE_BYTES = 256L << 20; //Per kernel, so tune it against the number of training entries.
 	
 	//NOTE: Only one of these should be true at a time when trying to get running time for 
-	//a type of classifier.
+	//a type of classifier (unless PARALLEL_TRAINING is on, which reports per classifier times).
 	private static final boolean DECISION_TREE = false;
 	private static final boolean NEURAL_NETWORK= false;
 	private static final boolean KNN = false;
 	private static final boolean BOOSTING = false;
 	private static final boolean SVM = true;
 	
+	private static final boolean PARALLEL_TRAINING = false; //Train every enabled (classifier, dataset) pair at once?
+	private static final int TRAINING_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final boolean PARALLEL_TRAINING_BASELINE = false; //Afterwards train the same classifiers again one after another, to print the real speedup?
+	private static final boolean PARALLEL_EVALUATION = false; //Score chunks of the test set on all cores?
+	private static final int EVALUATION_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	private static final boolean RECORD_METRICS = false; //Append per phase time, CPU, allocation and GC numbers of every run to METRICS_FILE?
+	private static final String METRICS_FILE = "metrics.csv";
+	
+	private static final boolean MODEL_CACHE = false; //Reuse classifiers already trained with the same settings on the same data?
+	private static final String MODEL_CACHE_DIRECTORY = "models";
+	private static final long MODEL_CACHE_MAX_BYTES = 1L << 30; //Least recently used models are deleted past this size.
+	private static final int MODEL_CACHE_MEMORY_ENTRIES = 16; //How many trained models to also keep in memory.
+	
+	private static final boolean DISTRIBUTED = false; //Hand every (run, classifier, dataset) job to worker JVMs instead of running them here?
+	private static final int DISTRIBUTED_LOCAL_WORKERS = 4; //Worker JVMs to start on this machine; remote ones can also connect.
+	private static final int DISTRIBUTED_PORT = 7641;
+	private static final String DISTRIBUTED_HOST = null; //Address to listen on for remote workers, e.g. "0.0.0.0" for all; null only takes local workers.
+	private static final int DISTRIBUTED_CRASH_AFTER_JOBS = -1; //Local workers exit abruptly after this many jobs, to try out the retries; -1 never.
+	
 	//DO NOT TOUCH FROM HERE ON
 	private static Instances pokemonTrainingDataSet;
 	private static Instances pokemonTestDataSet;
 	private static Instances customerSatisfactionTrainingDataSet;
 	private static Instances customerSatisfactionTestDataSet;
 	
-	private static J48 pokemonDecisionTreeClassifier, customerSatisfactionDecisionTreeClassifier;
-	private static MultilayerPerceptron pokemonNeuralNetworkClassifier, customerSatisfactionNeuralNetworkClassifier;
-	private static IBk pokemonKNNClassifier, customerSatisfactionKNNClassifier;
-	private static AdaBoostM1 pokemonBoostingClassifier, customerSatisfactionBoostingClassifier;
-	private static SMO pokemonSVMClassifier, customerSatisfactionSVMClassifier;
+	private static Classifier pokemonDecisionTreeClassifier, customerSatisfactionDecisionTreeClassifier;
+	private static Classifier pokemonNeuralNetworkClassifier, customerSatisfactionNeuralNetworkClassifier;
+	private static Classifier pokemonKNNClassifier, customerSatisfactionKNNClassifier;
+	private static Classifier pokemonBoostingClassifier, customerSatisfactionBoostingClassifier;
+	private static Classifier pokemonSVMClassifier, customerSatisfactionSVMClassifier;
+	
+	private static TrainingScheduler trainingScheduler; //Only used when PARALLEL_TRAINING is on.
+	private static ModelCache modelCache; //Only used when MODEL_CACHE is on.
+	private static RunMetrics metrics;
 	
 	public static void main(String[] args) {
+		if (STREAMING_TRAINING && !CROSS_VALIDATION && IN_MEMORY_PIPELINE && !WRITE_GENERATED_DATA)
+			throw new IllegalStateException("Streaming training reads the .arff files, which the in-memory pipeline "
+					+ "only writes with WRITE_GENERATED_DATA on.");
+		if (PARALLEL_TRAINING && PARALLEL_TRAINING_BASELINE && MODEL_CACHE)
+			throw new IllegalStateException("The sequential training baseline retrains every classifier, which the "
+					+ "model cache would only skip in the parallel training.");
+		if (DISTRIBUTED) {
+			runDistributed();
+			return;
+		}
+		
 		long startTime = System.nanoTime();
+		if (MODEL_CACHE)
+			modelCache = new ModelCache(new File(MODEL_CACHE_DIRECTORY), MODEL_CACHE_MAX_BYTES, MODEL_CACHE_MEMORY_ENTRIES);
 		
-		for (int i = 0; i < TEST_RUNS; i++) {
-			//Used to generate the data files.
-			PokemonARFFGenerator.generateFile(ENTRIES_PER_POKEMON, false);
-			CustomerSatisfactionARFFGenerator.generateFile(TOTAL_CUSTOMER_ENTRIES, false);
-			System.out.println();
+		int runs = CROSS_VALIDATION ? 1 : TEST_RUNS;
+		for (int i = 0; i < runs; i++) {
+			metrics = new RunMetrics(i);
 			
-			//Load the data.
-			loadInstances();
+			List<Future<?>> pendingWrites = new ArrayList<Future<?>>();
+			if (IN_MEMORY_PIPELINE) {
+				//Generate the data straight into memory.
+				RunMetrics.Phase generatePhase = metrics.start("generate");
+				pendingWrites = generateInstances(GENERATION_SEED + i);
+				generatePhase.end();
+				System.out.println();
+			} else if (useGenerationCache(GENERATION_SEED + i)) {
+				//The .arff files may still hold an earlier run's data, for another seed or sizes, and
+				//the tools that read them must see this run's.
+				pendingWrites = writeDataSets();
+			} else {
+				//Used to generate the data files.
+				RunMetrics.Phase generatePhase = metrics.start("generate");
+				if (PARALLEL_GENERATION) {
+					PokemonARFFGenerator.generateFileParallel(ENTRIES_PER_POKEMON, GENERATION_SEED + i, false);
+					CustomerSatisfactionARFFGenerator.generateFileParallel(TOTAL_CUSTOMER_ENTRIES, GENERATION_SEED + i, false);
+				} else {
+					PokemonARFFGenerator.generateFile(ENTRIES_PER_POKEMON, false);
+					CustomerSatisfactionARFFGenerator.generateFile(TOTAL_CUSTOMER_ENTRIES, false);
+				}
+				generatePhase.end();
+				System.out.println();
+				
+				//Load the data. In streaming mode the files are read while training instead.
+				if (!STREAMING_TRAINING || CROSS_VALIDATION) {
+					RunMetrics.Phase loadPhase = metrics.start("load");
+					loadInstances(USE_BINARY_CACHE && PARALLEL_GENERATION ? GENERATION_SEED + i : null);
+					loadPhase.end();
+				}
+			}
 			
-			//Do training.
-			if (DECISION_TREE)
-				trainDecisionTree();
-			if (NEURAL_NETWORK)
-				trainNeuralNetwork();
-			if (KNN)
-				trainKNN();
-			if (BOOSTING)
-				trainBoosting();
-			if (SVM)
-				trainSVM();
+			if (CROSS_VALIDATION) {
+				crossValidate();
+			} else if (STREAMING_TRAINING) {
+				//Streaming reads the files the in-memory pipeline is still writing.
+				awaitWrites(pendingWrites);
+				trainAndTestStreaming();
+			} else {
+				trainAndTest();
+			}
+			
+			//Make sure the background copies are on disk before the next run replaces the data.
+			awaitWrites(pendingWrites);
 			
-			//Evaluate the classifiers on the test data.
-			if (DECISION_TREE)
-				test(pokemonDecisionTreeClassifier, customerSatisfactionDecisionTreeClassifier, "decision tree");
-			if (NEURAL_NETWORK)
-				test(pokemonNeuralNetworkClassifier, customerSatisfactionNeuralNetworkClassifier, "neural network");
-			if (KNN)
-				test(pokemonKNNClassifier, customerSatisfactionKNNClassifier, "knn");
-			if (BOOSTING)
-				test(pokemonBoostingClassifier, customerSatisfactionBoostingClassifier, "boosting");
-			if (SVM)
-				test(pokemonSVMClassifier, customerSatisfactionSVMClassifier, "svm");
+			if (RECORD_METRICS) {
+				try {
+					metrics.appendCsv(new File(METRICS_FILE), settings());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 		}
 		
 		long endTime = System.nanoTime();
 		long difference = endTime - startTime;
 		double seconds = (double)difference / 1000000000.0;
-		double averageTime = seconds / TEST_RUNS;
+		double averageTime = seconds / runs;
 		
 		System.out.println("Average time: " + averageTime);
+		if (MODEL_CACHE)
+			System.out.println(modelCache.statistics());
+		
+	}
+	
+	private static void trainAndTest() {
+		//Do training.
+		if (PARALLEL_TRAINING)
+			trainingScheduler = new TrainingScheduler(TRAINING_THREADS, metrics, PARALLEL_TRAINING_BASELINE);
+		if (DECISION_TREE)
+			trainDecisionTree();
+		if (NEURAL_NETWORK)
+			trainNeuralNetwork();
+		if (KNN)
+			trainKNN();
+		if (BOOSTING)
+			trainBoosting();
+		if (SVM)
+			trainSVM();
+		if (PARALLEL_TRAINING)
+			trainingScheduler.awaitAll();
+		if (SVM && SVM_KERNEL_CACHE)
+			printKernelCacheStatistics();
+		
+		//Evaluate the classifiers on the test data.
+		if (DECISION_TREE)
+			test(pokemonDecisionTreeClassifier, customerSatisfactionDecisionTreeClassifier, "decision tree");
+		if (NEURAL_NETWORK)
+			test(pokemonNeuralNetworkClassifier, customerSatisfactionNeuralNetworkClassifier, "neural network");
+		if (KNN)
+			test(pokemonKNNClassifier, customerSatisfactionKNNClassifier, "knn");
+		if (BOOSTING)
+			test(pokemonBoostingClassifier, customerSatisfactionBoostingClassifier, "boosting");
+		if (SVM)
+			test(pokemonSVMClassifier, customerSatisfactionSVMClassifier, "svm");
+	}
+	
+	//The names of the enabled classifiers, as createClassifier takes them.
+	private static List<String> classifierNames() {
+		List<String> classifierNames = new ArrayList<String>();
+		if (DECISION_TREE)
+			classifierNames.add("decision tree");
+		if (NEURAL_NETWORK)
+			classifierNames.add("neural network");
+		if (KNN)
+			classifierNames.add("knn");
+		if (BOOSTING)
+			classifierNames.add("boosting");
+		if (SVM)
+			classifierNames.add("svm");
+		return classifierNames;
+	}
+	
+	//Cross-validates every enabled classifier on the training sets. Each fold trains a new 
+	//classifier from createClassifier, so the model cache is not used.
+	private static void crossValidate() {
+		for (final String classifierName : classifierNames()) {
+			try {
+				if (DO_POKEMON_DATASET) {
+					RunMetrics.Phase phase = metrics.start("cross-validate Pokemon " + classifierName);
+					CrossValidation.Result result = CrossValidation.crossValidate(() -> createClassifier(classifierName, true), 
+							pokemonTrainingDataSet, CROSS_VALIDATION_FOLDS, GENERATION_SEED, TRAINING_THREADS);
+					phase.end();
+					System.out.println("Pokemon " + classifierName + ": " + result);
+				}
+				if (DO_CUSTOMER_SATISFACTION_DATASET) {
+					RunMetrics.Phase phase = metrics.start("cross-validate Customer Satisfaction " + classifierName);
+					CrossValidation.Result result = CrossValidation.crossValidate(() -> createClassifier(classifierName, false), 
+							customerSatisfactionTrainingDataSet, CROSS_VALIDATION_FOLDS, GENERATION_SEED, TRAINING_THREADS);
+					phase.end();
+					System.out.println("Customer Satisfaction " + classifierName + ": " + result);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	//Every run generates its data from GENERATION_SEED + run, so all workers agree on it.
+	private static void runDistributed() {
+		List<DistributedRuns.Job> jobs = new ArrayList<DistributedRuns.Job>();
+		for (int i = 0; i < TEST_RUNS; i++) {
+			for (String classifierName : classifierNames()) {
+				if (DO_POKEMON_DATASET)
+					jobs.add(new DistributedRuns.Job(i, classifierName, true, ENTRIES_PER_POKEMON, 
+							GENERATION_SEED + i, TEST_AGAINST_TEST_SET));
+				if (DO_CUSTOMER_SATISFACTION_DATASET)
+					jobs.add(new DistributedRuns.Job(i, classifierName, false, TOTAL_CUSTOMER_ENTRIES, 
+							GENERATION_SEED + i, TEST_AGAINST_TEST_SET));
+			}
+		}
+		
+		try {
+			DistributedRuns.coordinate(jobs, DISTRIBUTED_HOST, DISTRIBUTED_PORT, DISTRIBUTED_LOCAL_WORKERS,
+					DISTRIBUTED_CRASH_AFTER_JOBS);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void awaitWrites(List<Future<?>> pendingWrites) {
+		for (Future<?> pendingWrite : pendingWrites) {
+			try {
+				pendingWrite.get();
+			} catch (InterruptedException | ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	//Trains and tests the updateable classifiers straight from the .arff files: a Hoeffding tree 
+	//instead of J48, IBk over a sliding window, and (with STREAMING_NAIVE_BAYES) naive bayes.
+	private static void trainAndTestStreaming() {
+		if (DECISION_TREE)
+			trainAndTestStreaming(new HoeffdingTree(), new HoeffdingTree(), "hoeffding tree");
+		if (KNN) {
+			IBk pokemonKNNClassifier = createKNN();
+			IBk customerSatisfactionKNNClassifier = createKNN();
+			pokemonKNNClassifier.setWindowSize(STREAMING_KNN_WINDOW);
+			customerSatisfactionKNNClassifier.setWindowSize(STREAMING_KNN_WINDOW);
+			trainAndTestStreaming(pokemonKNNClassifier, customerSatisfactionKNNClassifier, "knn");
+		}
+		if (STREAMING_NAIVE_BAYES)
+			trainAndTestStreaming(new NaiveBayesUpdateable(), new NaiveBayesUpdateable(), "naive bayes");
 		
+		if (NEURAL_NETWORK || BOOSTING || SVM)
+			System.out.println("The neural network, boosting and svm can't be trained incrementally, skipping them.");
+	}
+	
+	private static <T extends Classifier & UpdateableClassifier> void trainAndTestStreaming(T pokemonClassifier, 
+	T customerSatisfactionClassifier, String classifierName) {
+		try {
+			if (DO_POKEMON_DATASET) {
+				File training = new File("data" + File.separator + POKEMON_TRAINING_DATA_SET);
+				File test = TEST_AGAINST_TEST_SET ? new File("data" + File.separator + POKEMON_TEST_DATA_SET) : training;
+				
+				RunMetrics.Phase trainPhase = metrics.start("train Pokemon " + classifierName);
+				StreamingTraining.train(pokemonClassifier, training);
+				trainPhase.end();
+				RunMetrics.Phase testPhase = metrics.start("test Pokemon " + classifierName);
+				Evaluation pokemonEvaluation = StreamingTraining.evaluate(pokemonClassifier, test);
+				testPhase.end();
+				
+				System.out.print("Pokemon " + classifierName + ": ");
+				System.out.println(100.0 * pokemonEvaluation.correct() / pokemonEvaluation.numInstances());
+			}
+			
+			if (DO_CUSTOMER_SATISFACTION_DATASET) {
+				File training = new File("data" + File.separator + CUSTOMER_SATISFACTION_TRAINING_DATA_SET);
+				File test = TEST_AGAINST_TEST_SET ? new File("data" + File.separator + CUSTOMER_SATISFACTION_TEST_DATA_SET) : training;
+				
+				RunMetrics.Phase trainPhase = metrics.start("train Customer Satisfaction " + classifierName);
+				StreamingTraining.train(customerSatisfactionClassifier, training);
+				trainPhase.end();
+				RunMetrics.Phase testPhase = metrics.start("test Customer Satisfaction " + classifierName);
+				Evaluation customerSatisfactionEvaluation = StreamingTraining.evaluate(customerSatisfactionClassifier, test);
+				testPhase.end();
+				
+				System.out.print("Customer Satisfaction " + classifierName + ": ");
+				System.out.println(100.0 * customerSatisfactionEvaluation.correct() / customerSatisfactionEvaluation.numInstances());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 	
 	private static void test(Classifier pokemonClassifier, Classifier customerSatisfactionClassifier, String classifierName) {
@@ -105,12 +358,12 @@ public class Main {
 		try {
 			//Test pokemon dataset.
 			if (DO_POKEMON_DATASET) {
-				pokemonEvaluation = new Evaluation(pokemonTrainingDataSet);
-				
+				RunMetrics.Phase testPhase = metrics.start("test Pokemon " + classifierName);
 				if (TEST_AGAINST_TEST_SET)
-					pokemonEvaluation.evaluateModel(pokemonClassifier, pokemonTestDataSet);
+					pokemonEvaluation = evaluate(pokemonClassifier, pokemonTrainingDataSet, pokemonTestDataSet);
 				else
-					pokemonEvaluation.evaluateModel(pokemonClassifier, pokemonTrainingDataSet);
+					pokemonEvaluation = evaluate(pokemonClassifier, pokemonTrainingDataSet, pokemonTrainingDataSet);
+				testPhase.end();
 				
 				System.out.print("Pokemon " + classifierName + ": ");
 				System.out.println(100.0 * pokemonEvaluation.correct() / pokemonEvaluation.numInstances());
@@ -118,12 +371,14 @@ public class Main {
 			
 			//Test customer satisfaction dataset.
 			if (DO_CUSTOMER_SATISFACTION_DATASET) {
-				customerSatisfactionEvaluation = new Evaluation(customerSatisfactionTrainingDataSet);
-				
+				RunMetrics.Phase testPhase = metrics.start("test Customer Satisfaction " + classifierName);
 				if (TEST_AGAINST_TEST_SET)
-					customerSatisfactionEvaluation.evaluateModel(customerSatisfactionClassifier, customerSatisfactionTestDataSet);
+					customerSatisfactionEvaluation = evaluate(customerSatisfactionClassifier, 
+							customerSatisfactionTrainingDataSet, customerSatisfactionTestDataSet);
 				else
-					customerSatisfactionEvaluation.evaluateModel(customerSatisfactionClassifier, customerSatisfactionTrainingDataSet);
+					customerSatisfactionEvaluation = evaluate(customerSatisfactionClassifier, 
+							customerSatisfactionTrainingDataSet, customerSatisfactionTrainingDataSet);
+				testPhase.end();
 				
 				System.out.print("Customer Satisfaction " + classifierName + ": ");
 				System.out.println(100.0 * customerSatisfactionEvaluation.correct() / customerSatisfactionEvaluation.numInstances());
@@ -133,123 +388,293 @@ public class Main {
 		}		
 	}
 	
+	private static Evaluation evaluate(Classifier classifier, Instances trainingDataSet, Instances testDataSet) throws Exception {
+		if (PARALLEL_EVALUATION)
+			return ParallelEvaluation.evaluate(classifier, trainingDataSet, testDataSet, EVALUATION_THREADS);
+		
+		Evaluation evaluation = new Evaluation(trainingDataSet);
+		evaluation.evaluateModel(classifier, testDataSet);
+		return evaluation;
+	}
+	
 	private static void trainSVM() {
-		pokemonSVMClassifier = new SMO();
-		customerSatisfactionSVMClassifier = new SMO();
-		try {
-			if (DO_POKEMON_DATASET)
-				pokemonSVMClassifier.buildClassifier(pokemonTrainingDataSet);
-			
-			if (DO_CUSTOMER_SATISFACTION_DATASET) {
-				PolyKernel polyKernel = new PolyKernel();
-				polyKernel.setExponent(3);
-				customerSatisfactionSVMClassifier.setKernel(polyKernel);
-				customerSatisfactionSVMClassifier.buildClassifier(customerSatisfactionTrainingDataSet);
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		pokemonSVMClassifier = cached(createPokemonSVM());
+		customerSatisfactionSVMClassifier = cached(createCustomerSatisfactionSVM());
+		train(pokemonSVMClassifier, customerSatisfactionSVMClassifier, "svm");
+	}
+	
+	static SMO createPokemonSVM() {
+		SMO svmClassifier = new SMO();
+		if (SVM_KERNEL_CACHE)
+			svmClassifier.setKernel(new RowCachedPolyKernel(1, SVM_KERNEL_CACHE_BYTES));
+		return svmClassifier;
+	}
+	
+	static SMO createCustomerSatisfactionSVM() {
+		SMO svmClassifier = new SMO();
+		if (SVM_KERNEL_CACHE) {
+			svmClassifier.setKernel(new RowCachedPolyKernel(3, SVM_KERNEL_CACHE_BYTES));
+		} else {
+			PolyKernel polyKernel = new PolyKernel();
+			polyKernel.setExponent(3);
+			svmClassifier.setKernel(polyKernel);
 		}
+		return svmClassifier;
+	}
+	
+	private static void printKernelCacheStatistics() {
+		if (DO_POKEMON_DATASET)
+			System.out.println("Pokemon svm: " + kernelCacheStatistics(pokemonSVMClassifier));
+		if (DO_CUSTOMER_SATISFACTION_DATASET)
+			System.out.println("Customer Satisfaction svm: " + kernelCacheStatistics(customerSatisfactionSVMClassifier));
+	}
+	
+	private static RowCachedPolyKernel.Statistics kernelCacheStatistics(Classifier classifier) {
+		if (classifier instanceof CachedClassifier)
+			classifier = ((CachedClassifier) classifier).getClassifier();
+		return ((RowCachedPolyKernel) ((SMO) classifier).getKernel()).getStatistics();
 	}
 	
 	private static void trainBoosting() {
-		pokemonBoostingClassifier = new AdaBoostM1();
-		customerSatisfactionBoostingClassifier = new AdaBoostM1();
-		try {
-			if (DO_POKEMON_DATASET) {
-				pokemonBoostingClassifier.setNumIterations(BOOSTING_ITERATIONS);
-				pokemonBoostingClassifier.setWeightThreshold(95);
-				RandomForest pokemonRandomForest = new RandomForest();
-				pokemonRandomForest.setNumIterations(5);
-				pokemonRandomForest.setMaxDepth(3);
-				pokemonBoostingClassifier.setClassifier(pokemonRandomForest);
-				pokemonBoostingClassifier.buildClassifier(pokemonTrainingDataSet);	
-			}
-			
-			if (DO_CUSTOMER_SATISFACTION_DATASET) {
-				customerSatisfactionBoostingClassifier.setNumIterations(BOOSTING_ITERATIONS);
-				customerSatisfactionBoostingClassifier.setWeightThreshold(95);
-				RandomForest customerSatisfactionRandomForest = new RandomForest();
-				customerSatisfactionRandomForest.setNumIterations(5);
-				customerSatisfactionRandomForest.setMaxDepth(3);
-				customerSatisfactionBoostingClassifier.setClassifier(customerSatisfactionRandomForest);
-				customerSatisfactionBoostingClassifier.buildClassifier(customerSatisfactionTrainingDataSet);
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		pokemonBoostingClassifier = cached(createBoosting());
+		customerSatisfactionBoostingClassifier = cached(createBoosting());
+		train(pokemonBoostingClassifier, customerSatisfactionBoostingClassifier, "boosting");
+	}
+	
+	static AdaBoostM1 createBoosting() {
+		AdaBoostM1 boostingClassifier = new AdaBoostM1();
+		boostingClassifier.setNumIterations(BOOSTING_ITERATIONS);
+		boostingClassifier.setWeightThreshold(95);
+		if (HISTOGRAM_TREES) {
+			HistogramForest histogramForest = new HistogramForest();
+			histogramForest.setNumIterations(5);
+			histogramForest.setMaxDepth(3);
+			boostingClassifier.setClassifier(histogramForest);
+		} else {
+			RandomForest randomForest = new RandomForest();
+			randomForest.setNumIterations(5);
+			randomForest.setMaxDepth(3);
+			boostingClassifier.setClassifier(randomForest);
 		}
+		return boostingClassifier;
 	}
 	
 	private static void trainKNN() {
-		pokemonKNNClassifier = new IBk();
-		customerSatisfactionKNNClassifier = new IBk();
+		pokemonKNNClassifier = cached(KD_TREE_KNN ? createKDTreeKNN() : createKNN());
+		customerSatisfactionKNNClassifier = cached(KD_TREE_KNN ? createKDTreeKNN() : createKNN());
+		train(pokemonKNNClassifier, customerSatisfactionKNNClassifier, "knn");
+	}
+	
+	static IBk createKNN() {
+		IBk knnClassifier = new IBk();
+		knnClassifier.setKNN(K);
+		return knnClassifier;
+	}
+	
+	static KDTreeKNN createKDTreeKNN() {
+		KDTreeKNN knnClassifier = new KDTreeKNN();
+		knnClassifier.setKNN(K);
+		return knnClassifier;
+	}
+	
+	private static void trainNeuralNetwork() {
+		pokemonNeuralNetworkClassifier = cached(MINI_BATCH_NEURAL_NETWORK ? createMiniBatchNeuralNetwork() : createNeuralNetwork());
+		customerSatisfactionNeuralNetworkClassifier = cached(MINI_BATCH_NEURAL_NETWORK ? createMiniBatchNeuralNetwork() : createNeuralNetwork());
+		train(pokemonNeuralNetworkClassifier, customerSatisfactionNeuralNetworkClassifier, "neural network");
+	}
+	
+	static MultilayerPerceptron createNeuralNetwork() {
+		MultilayerPerceptron neuralNetworkClassifier = new MultilayerPerceptron();
+		neuralNetworkClassifier.setLearningRate(0.1);
+		neuralNetworkClassifier.setMomentum(0.2);
+		neuralNetworkClassifier.setTrainingTime(NEURAL_NET_TRAINING_TIME);
+		neuralNetworkClassifier.setHiddenLayers("a");
+		return neuralNetworkClassifier;
+	}
+	
+	static MiniBatchMLP createMiniBatchNeuralNetwork() {
+		MiniBatchMLP neuralNetworkClassifier = new MiniBatchMLP();
+		neuralNetworkClassifier.setLearningRate(NEURAL_NET_MINI_BATCH_LEARNING_RATE);
+		neuralNetworkClassifier.setMomentum(0.2);
+		neuralNetworkClassifier.setTrainingTime(NEURAL_NET_TRAINING_TIME);
+		neuralNetworkClassifier.setHiddenLayers("a");
+		neuralNetworkClassifier.setMiniBatchSize(NEURAL_NET_MINI_BATCH_SIZE);
+		return neuralNetworkClassifier;
+	}
+	
+	private static void trainDecisionTree() {
+		pokemonDecisionTreeClassifier = cached(HISTOGRAM_TREES ? createHistogramTree() : createDecisionTree());
+		customerSatisfactionDecisionTreeClassifier = cached(HISTOGRAM_TREES ? createHistogramTree() : createDecisionTree());
+		train(pokemonDecisionTreeClassifier, customerSatisfactionDecisionTreeClassifier, "decision tree");
+	}
+	
+	//The classifier Main trains under the given name, for the pokemon or the customer satisfaction 
+	//dataset.
+	static Classifier createClassifier(String classifierName, boolean pokemon) {
+		switch (classifierName) {
+		case "decision tree":
+			return HISTOGRAM_TREES ? createHistogramTree() : createDecisionTree();
+		case "neural network":
+			return MINI_BATCH_NEURAL_NETWORK ? createMiniBatchNeuralNetwork() : createNeuralNetwork();
+		case "knn":
+			return KD_TREE_KNN ? createKDTreeKNN() : createKNN();
+		case "boosting":
+			return createBoosting();
+		case "svm":
+			return pokemon ? createPokemonSVM() : createCustomerSatisfactionSVM();
+		default:
+			throw new IllegalArgumentException("Unknown classifier " + classifierName);
+		}
+	}
+	
+	static J48 createDecisionTree() {
+		return new J48();
+	}
+	
+	static HistogramTree createHistogramTree() {
+		return new HistogramTree();
+	}
+	
+	//Wraps the classifier so training it is skipped when the model cache already has it.
+	private static Classifier cached(Classifier classifier) {
+		if (MODEL_CACHE)
+			return new CachedClassifier(classifier, modelCache);
+		return classifier;
+	}
+	
+	//Builds the classifiers for the enabled datasets, or hands them to the training scheduler 
+	//when PARALLEL_TRAINING is on.
+	private static void train(Classifier pokemonClassifier, Classifier customerSatisfactionClassifier, String classifierName) {
+		if (PARALLEL_TRAINING) {
+			if (DO_POKEMON_DATASET)
+				trainingScheduler.submit("Pokemon " + classifierName, pokemonClassifier, pokemonTrainingDataSet);
+			if (DO_CUSTOMER_SATISFACTION_DATASET)
+				trainingScheduler.submit("Customer Satisfaction " + classifierName, 
+						customerSatisfactionClassifier, customerSatisfactionTrainingDataSet);
+			return;
+		}
+		
 		try {
 			if (DO_POKEMON_DATASET) {
-				pokemonKNNClassifier.setKNN(K);
-				pokemonKNNClassifier.buildClassifier(pokemonTrainingDataSet);
+				RunMetrics.Phase trainPhase = metrics.start("train Pokemon " + classifierName);
+				pokemonClassifier.buildClassifier(pokemonTrainingDataSet);
+				trainPhase.end();
 			}
-			
 			if (DO_CUSTOMER_SATISFACTION_DATASET) {
-				customerSatisfactionKNNClassifier.setKNN(K);
-				customerSatisfactionKNNClassifier.buildClassifier(customerSatisfactionTrainingDataSet);
+				RunMetrics.Phase trainPhase = metrics.start("train Customer Satisfaction " + classifierName);
+				customerSatisfactionClassifier.buildClassifier(customerSatisfactionTrainingDataSet);
+				trainPhase.end();
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 	
-	private static void trainNeuralNetwork() {
-		if (DO_POKEMON_DATASET) {
-			pokemonNeuralNetworkClassifier = new MultilayerPerceptron();
-			pokemonNeuralNetworkClassifier.setLearningRate(0.1);
-			pokemonNeuralNetworkClassifier.setMomentum(0.2);
-			pokemonNeuralNetworkClassifier.setTrainingTime(NEURAL_NET_TRAINING_TIME);
-			pokemonNeuralNetworkClassifier.setHiddenLayers("a");
-		}
+	//The settings written next to every row of the metrics file.
+	private static Map<String, Object> settings() {
+		Map<String, Object> settings = new LinkedHashMap<String, Object>();
+		settings.put("entries_per_pokemon", ENTRIES_PER_POKEMON);
+		settings.put("customer_entries", TOTAL_CUSTOMER_ENTRIES);
+		settings.put("neural_net_training_time", NEURAL_NET_TRAINING_TIME);
+		settings.put("neural_net_mini_batch_size", MINI_BATCH_NEURAL_NETWORK ? NEURAL_NET_MINI_BATCH_SIZE : 0);
+		settings.put("neural_net_mini_batch_learning_rate", MINI_BATCH_NEURAL_NETWORK ? NEURAL_NET_MINI_BATCH_LEARNING_RATE : 0);
+		settings.put("k", K);
+		settings.put("kd_tree_knn", KD_TREE_KNN);
+		settings.put("boosting_iterations", BOOSTING_ITERATIONS);
+		settings.put("histogram_trees", HISTOGRAM_TREES);
+		settings.put("svm_kernel_cache_bytes", SVM_KERNEL_CACHE ? SVM_KERNEL_CACHE_BYTES : 0);
+		settings.put("parallel_generation", PARALLEL_GENERATION);
+		settings.put("in_memory_pipeline", IN_MEMORY_PIPELINE);
+		settings.put("columnar_datasets", IN_MEMORY_PIPELINE && COLUMNAR_DATASETS);
+		settings.put("parallel_training", PARALLEL_TRAINING);
+		settings.put("parallel_training_baseline", PARALLEL_TRAINING && PARALLEL_TRAINING_BASELINE);
+		settings.put("parallel_evaluation", PARALLEL_EVALUATION);
+		settings.put("streaming_training", STREAMING_TRAINING);
+		settings.put("streaming_naive_bayes", STREAMING_TRAINING && STREAMING_NAIVE_BAYES);
+		settings.put("cross_validation_folds", CROSS_VALIDATION ? CROSS_VALIDATION_FOLDS : 0);
+		return settings;
+	}
+	
+	//Fills the datasets straight from the generators. Returns the background writes of the 
+	//.arff files, if WRITE_GENERATED_DATA is set.
+	private static List<Future<?>> generateInstances(long seed) {
+		Instances[] pokemon = PokemonARFFGenerator.generateInstances(ENTRIES_PER_POKEMON, seed, COLUMNAR_DATASETS);
+		pokemonTrainingDataSet = pokemon[0];
+		pokemonTestDataSet = pokemon[1];
 		
-		if (DO_CUSTOMER_SATISFACTION_DATASET) {
-			customerSatisfactionNeuralNetworkClassifier = new MultilayerPerceptron();
-			customerSatisfactionNeuralNetworkClassifier.setLearningRate(0.1);
-			customerSatisfactionNeuralNetworkClassifier.setMomentum(0.2);
-			customerSatisfactionNeuralNetworkClassifier.setTrainingTime(NEURAL_NET_TRAINING_TIME);
-			customerSatisfactionNeuralNetworkClassifier.setHiddenLayers("a");
-		}
+		Instances[] customerSatisfaction = CustomerSatisfactionARFFGenerator.generateInstances(TOTAL_CUSTOMER_ENTRIES, seed, 
+				COLUMNAR_DATASETS);
+		customerSatisfactionTrainingDataSet = customerSatisfaction[0];
+		customerSatisfactionTestDataSet = customerSatisfaction[1];
 		
-		try {
-			if (DO_POKEMON_DATASET)
-				pokemonNeuralNetworkClassifier.buildClassifier(pokemonTrainingDataSet);
-			if (DO_CUSTOMER_SATISFACTION_DATASET)
-				customerSatisfactionNeuralNetworkClassifier.buildClassifier(customerSatisfactionTrainingDataSet);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		if (WRITE_GENERATED_DATA)
+			return writeDataSets();
+		return new ArrayList<Future<?>>();
 	}
 	
-	private static void trainDecisionTree() {
-		pokemonDecisionTreeClassifier = new J48();
-		customerSatisfactionDecisionTreeClassifier = new J48();
-		try {
-			if (DO_POKEMON_DATASET)
-				pokemonDecisionTreeClassifier.buildClassifier(pokemonTrainingDataSet);
-			if (DO_CUSTOMER_SATISFACTION_DATASET)
-				customerSatisfactionDecisionTreeClassifier.buildClassifier(customerSatisfactionTrainingDataSet);
-		} catch (Exception e) {
-			e.printStackTrace();
+	//Writes the datasets in memory to their .arff files in the background.
+	private static List<Future<?>> writeDataSets() {
+		List<Future<?>> pendingWrites = new ArrayList<Future<?>>();
+		pendingWrites.add(AsyncARFFWriter.write(pokemonTrainingDataSet, 
+				new File("data" + File.separator + POKEMON_TRAINING_DATA_SET)));
+		pendingWrites.add(AsyncARFFWriter.write(pokemonTestDataSet, 
+				new File("data" + File.separator + POKEMON_TEST_DATA_SET)));
+		pendingWrites.add(AsyncARFFWriter.write(customerSatisfactionTrainingDataSet, 
+				new File("data" + File.separator + CUSTOMER_SATISFACTION_TRAINING_DATA_SET)));
+		pendingWrites.add(AsyncARFFWriter.write(customerSatisfactionTestDataSet, 
+				new File("data" + File.separator + CUSTOMER_SATISFACTION_TEST_DATA_SET)));
+		return pendingWrites;
+	}
+	
+	//Seeded generation writes the same files for the same seed and sizes, so with the binary 
+	//cache a run whose datasets were cached before loads them from there instead of generating 
+	//and parsing them. Returns whether it did; the caller then rewrites the .arff files from them.
+	//Streaming mode reads the .arff files themselves, so it always generates them.
+	private static boolean useGenerationCache(long seed) {
+		if (!USE_BINARY_CACHE || !PARALLEL_GENERATION || (STREAMING_TRAINING && !CROSS_VALIDATION))
+			return false;
+		
+		//The phase is only ended, and so recorded, when every dataset was cached.
+		RunMetrics.Phase loadPhase = metrics.start("load cached");
+		Instances[] cached = {
+			BinaryDatasetCache.readIfValid(generationCacheFile(POKEMON_TRAINING_DATA_SET, seed)),
+			BinaryDatasetCache.readIfValid(generationCacheFile(POKEMON_TEST_DATA_SET, seed)),
+			BinaryDatasetCache.readIfValid(generationCacheFile(CUSTOMER_SATISFACTION_TRAINING_DATA_SET, seed)),
+			BinaryDatasetCache.readIfValid(generationCacheFile(CUSTOMER_SATISFACTION_TEST_DATA_SET, seed))
+		};
+		for (Instances data : cached) {
+			if (data == null)
+				return false;
+			data.setClassIndex(data.numAttributes() - 1);
 		}
+		loadPhase.end();
+		
+		pokemonTrainingDataSet = cached[0];
+		pokemonTestDataSet = cached[1];
+		customerSatisfactionTrainingDataSet = cached[2];
+		customerSatisfactionTestDataSet = cached[3];
+		System.out.println("Loaded the datasets for seed " + seed + " from the binary cache");
+		System.out.println();
+		return true;
+	}
+	
+	//The generation cache of one dataset, keyed on the seed and the size setting it was made with.
+	private static File generationCacheFile(String fileName, long seed) {
+		int size = fileName.startsWith("pokemon") ? ENTRIES_PER_POKEMON : TOTAL_CUSTOMER_ENTRIES;
+		return BinaryDatasetCache.cacheFileFor(new File("data" + File.separator + fileName), seed + "-" + size);
 	}
 	
-	private static void loadInstances() {
+	//Parses the freshly generated files. Given the seed they were generated with, also caches 
+	//them for useGenerationCache.
+	private static void loadInstances(Long cacheSeed) {
 		try {
-			pokemonTrainingDataSet = new Instances(new BufferedReader(
-					new FileReader("data" + File.separator + POKEMON_TRAINING_DATA_SET)));
-			pokemonTestDataSet = new Instances(new BufferedReader(
-					new FileReader("data" + File.separator + POKEMON_TEST_DATA_SET)));
+			pokemonTrainingDataSet = loadGeneratedDataSet(POKEMON_TRAINING_DATA_SET, cacheSeed);
+			pokemonTestDataSet = loadGeneratedDataSet(POKEMON_TEST_DATA_SET, cacheSeed);
 			pokemonTrainingDataSet.setClassIndex(pokemonTrainingDataSet.numAttributes() - 1);
 			pokemonTestDataSet.setClassIndex(pokemonTestDataSet.numAttributes() - 1);
 			
-			customerSatisfactionTrainingDataSet = new Instances(new BufferedReader(
-					new FileReader("data" + File.separator + CUSTOMER_SATISFACTION_TRAINING_DATA_SET)));
-			customerSatisfactionTestDataSet = new Instances(new BufferedReader(
-					new FileReader("data" + File.separator + CUSTOMER_SATISFACTION_TEST_DATA_SET)));
+			customerSatisfactionTrainingDataSet = loadGeneratedDataSet(CUSTOMER_SATISFACTION_TRAINING_DATA_SET, cacheSeed);
+			customerSatisfactionTestDataSet = loadGeneratedDataSet(CUSTOMER_SATISFACTION_TEST_DATA_SET, cacheSeed);
 			customerSatisfactionTrainingDataSet.setClassIndex(
 					customerSatisfactionTrainingDataSet.numAttributes() - 1);
 			customerSatisfactionTestDataSet.setClassIndex(
@@ -260,4 +685,29 @@ public class Main {
 			e.printStackTrace();
 		}
 	}
+	
+	private static Instances loadGeneratedDataSet(String fileName, Long cacheSeed) throws IOException {
+		Instances data = readArff(new File("data" + File.separator + fileName));
+		if (cacheSeed != null)
+			BinaryDatasetCache.write(data, generationCacheFile(fileName, cacheSeed));
+		return data;
+	}
+	
+	//Loads an existing data file. With USE_BINARY_CACHE it comes from the file's binary copy 
+	//while that is newer than the file, which helps tools that read the same files many times.
+	static Instances loadDataSet(String fileName) throws IOException {
+		File file = new File("data" + File.separator + fileName);
+		if (USE_BINARY_CACHE)
+			return BinaryDatasetCache.load(file);
+		return readArff(file);
+	}
+	
+	private static Instances readArff(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			return new Instances(reader);
+		} finally {
+			reader.close();
+		}
+	}
 }
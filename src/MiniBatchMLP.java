@@ -0,0 +1,476 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+//A multilayer perceptron set up like Weka's MultilayerPerceptron: the same hidden layer wildcards
+//("a", "i", "o", "t"), sigmoid units, learning rate, momentum and number of epochs, nominal
+//attributes turned into 0/1 inputs, every input scaled to [-1, 1], and missing values replaced
+//by the training mean or mode. Only nominal classes are supported.
+//
+//Instead of one object per neuron and one update per instance, the weights, activations and
+//gradients live in flat double[] arrays and the weights are updated once per mini-batch with the
+//gradient averaged over the batch (weighted by the rows' weights), so a step has the same size
+//whatever the batch size, and with a mini-batch of 1 training is plain per-instance
+//backpropagation like Weka's. A mini-batch is split across cores when each core gets at least
+//MIN_WORK_PER_THREAD rows times weights, each core summing the gradient of its slice into its
+//own array. With Main's 8-row batches that splits the pokemon network (about 1000 weights) but
+//not the customer satisfaction one (under 100), whose batches take less time to compute than to
+//hand out. Training allocates nothing per instance.
+public class MiniBatchMLP extends AbstractClassifier {
+	private static final long serialVersionUID = 1L;
+	private static final int MIN_WORK_PER_THREAD = 4096; //Rows times weights; less costs more to hand out than to compute.
+	
+	private double learningRate = 0.3;
+	private double momentum = 0.2;
+	private int trainingTime = 500;
+	private String hiddenLayers = "a";
+	private int miniBatchSize = 128;
+	private int seed = 0;
+	
+	//Input encoding. Attribute a (not the class) starts at input inputStart[a]; nominal attributes
+	//with more than two values take one input per value, the others take one input.
+	private int[] inputStart;
+	private boolean[] nominal;
+	private boolean[] binary;
+	private double[] replacements; //Mean or mode used for missing values, per attribute.
+	private double[] inputBases; //Input i is scaled as (value - inputBases[i]) / inputRanges[i].
+	private double[] inputRanges;
+	private int classIndex;
+	private int numInputs;
+	
+	//Layer l has layerSizes[l] units starting at unitStart[l] among all units (layer 0 is the
+	//input). Unit j of layer l > 0 has layerSizes[l - 1] + 1 weights starting at
+	//weightStart[l] + j * (layerSizes[l - 1] + 1), the first being the bias.
+	private int[] layerSizes;
+	private int[] unitStart;
+	private int[] weightStart;
+	private int numUnits;
+	private double[] weights;
+	
+	private int epochsRun;
+	private long trainingNanos;
+	
+	public void setLearningRate(double learningRate) {
+		this.learningRate = learningRate;
+	}
+	
+	public double getLearningRate() {
+		return learningRate;
+	}
+	
+	public void setMomentum(double momentum) {
+		this.momentum = momentum;
+	}
+	
+	public double getMomentum() {
+		return momentum;
+	}
+	
+	//Number of epochs.
+	public void setTrainingTime(int trainingTime) {
+		this.trainingTime = trainingTime;
+	}
+	
+	public int getTrainingTime() {
+		return trainingTime;
+	}
+	
+	//Comma separated sizes of the hidden layers, as numbers or Weka's wildcards: a = (inputs +
+	//classes) / 2, i = inputs, o = classes, t = inputs + classes. "0" means no hidden layer.
+	public void setHiddenLayers(String hiddenLayers) {
+		this.hiddenLayers = hiddenLayers;
+	}
+	
+	public String getHiddenLayers() {
+		return hiddenLayers;
+	}
+	
+	//Rows per weight update. The gradient is averaged, so the learning rate means the same for any
+	//size, but larger mini-batches make fewer updates per epoch, which on small datasets can take
+	//more epochs. Only mini-batches of 2 * MIN_WORK_PER_THREAD rows times weights or more are
+	//split across cores.
+	public void setMiniBatchSize(int miniBatchSize) {
+		this.miniBatchSize = miniBatchSize;
+	}
+	
+	public int getMiniBatchSize() {
+		return miniBatchSize;
+	}
+	
+	public void setSeed(int seed) {
+		this.seed = seed;
+	}
+	
+	public int getSeed() {
+		return seed;
+	}
+	
+	//Epochs the last buildClassifier ran over all its attempts, so more than the training time
+	//when it had to start over with a lower learning rate. getTrainingNanos covers the same
+	//attempts.
+	public int getEpochsRun() {
+		return epochsRun;
+	}
+	
+	public long getTrainingNanos() {
+		return trainingNanos;
+	}
+	
+	@Override
+	public String[] getOptions() {
+		return new String[] { "-L", String.valueOf(learningRate), "-M", String.valueOf(momentum),
+				"-N", String.valueOf(trainingTime), "-H", hiddenLayers,
+				"-mini-batch-size", String.valueOf(miniBatchSize), "-S", String.valueOf(seed) };
+	}
+	
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String option = Utils.getOption('L', options);
+		learningRate = option.isEmpty() ? 0.3 : Double.parseDouble(option);
+		option = Utils.getOption('M', options);
+		momentum = option.isEmpty() ? 0.2 : Double.parseDouble(option);
+		option = Utils.getOption('N', options);
+		trainingTime = option.isEmpty() ? 500 : Integer.parseInt(option);
+		option = Utils.getOption('H', options);
+		hiddenLayers = option.isEmpty() ? "a" : option;
+		option = Utils.getOption("mini-batch-size", options);
+		miniBatchSize = option.isEmpty() ? 128 : Integer.parseInt(option);
+		option = Utils.getOption('S', options);
+		seed = option.isEmpty() ? 0 : Integer.parseInt(option);
+	}
+	
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		long startTime = System.nanoTime();
+		classIndex = data.classIndex();
+		if (classIndex < 0)
+			throw new IllegalArgumentException("The class attribute is not set.");
+		if (!data.classAttribute().isNominal())
+			throw new IllegalArgumentException("MiniBatchMLP only handles nominal classes.");
+		
+		int numRows = 0;
+		for (Instance instance : data) {
+			if (!instance.classIsMissing())
+				numRows++;
+		}
+		setUpInputs(data);
+		setUpLayers(data.numClasses());
+		
+		//Encode every row once. Rows without a class are dropped, like Weka does.
+		double[] inputs = new double[numRows * numInputs];
+		int[] classes = new int[numRows];
+		double[] rowWeights = new double[numRows];
+		int row = 0;
+		for (Instance instance : data) {
+			if (instance.classIsMissing())
+				continue;
+			encode(instance, inputs, row * numInputs);
+			classes[row] = (int) instance.classValue();
+			rowWeights[row] = instance.weight();
+			row++;
+		}
+		
+		//Like Weka, start over with half the learning rate whenever the error blows up, and give up
+		//once the rate is negligible.
+		double rate = learningRate;
+		epochsRun = 0;
+		while (!train(inputs, classes, rowWeights, numRows, rate)) {
+			rate /= 2;
+			if (rate <= Utils.SMALL)
+				throw new IllegalStateException("Learning rate got too small (" + rate + " <= " + Utils.SMALL + ")!");
+		}
+		trainingNanos = System.nanoTime() - startTime;
+	}
+	
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		double[] activations = new double[numUnits];
+		encode(instance, activations, 0);
+		forward(activations);
+		
+		int outputLayer = layerSizes.length - 1;
+		double[] distribution = Arrays.copyOfRange(activations, unitStart[outputLayer], numUnits);
+		double sum = 0;
+		for (double output : distribution)
+			sum += output;
+		if (sum > 0)
+			Utils.normalize(distribution, sum);
+		else
+			Arrays.fill(distribution, 1.0 / distribution.length);
+		return distribution;
+	}
+	
+	//Runs every epoch with the given learning rate. Returns false if the error became infinite or
+	//NaN.
+	private boolean train(final double[] inputs, final int[] classes, final double[] rowWeights, int numRows,
+	double rate) {
+		Random random = new Random(seed);
+		weights = new double[weightStart[layerSizes.length]];
+		for (int w = 0; w < weights.length; w++)
+			weights[w] = random.nextDouble() * 0.1 - 0.05;
+		double[] previousChanges = new double[weights.length];
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		final double[][] gradients = new double[threads][weights.length];
+		final double[][] activations = new double[threads][numUnits];
+		final double[][] deltas = new double[threads][numUnits];
+		final double[] errors = new double[threads];
+		final int[] order = new int[numRows];
+		for (int i = 0; i < numRows; i++)
+			order[i] = i;
+		
+		for (int epoch = 0; epoch < trainingTime; epoch++) {
+			epochsRun++;
+			shuffle(order, random);
+			double error = 0;
+			for (int batchStart = 0; batchStart < numRows; batchStart += miniBatchSize) {
+				final int batchEnd = Math.min(numRows, batchStart + miniBatchSize);
+				long work = (long) (batchEnd - batchStart) * weights.length;
+				int slices = (int) Math.max(1, Math.min(threads, work / MIN_WORK_PER_THREAD));
+				if (slices == 1) {
+					errors[0] = backpropagate(inputs, classes, rowWeights, order, batchStart, batchEnd,
+							gradients[0], activations[0], deltas[0]);
+				} else {
+					final int sliceStart = batchStart;
+					final int sliceSize = (batchEnd - batchStart + slices - 1) / slices;
+					IntStream.range(0, slices).parallel().forEach(s -> errors[s] = backpropagate(inputs, classes,
+							rowWeights, order, sliceStart + s * sliceSize, Math.min(batchEnd, sliceStart + (s + 1) * sliceSize),
+							gradients[s], activations[s], deltas[s]));
+					for (int s = 1; s < slices; s++) {
+						for (int w = 0; w < weights.length; w++)
+							gradients[0][w] += gradients[s][w];
+					}
+				}
+				for (int s = 0; s < slices; s++)
+					error += errors[s];
+				
+				double batchWeight = 0;
+				for (int position = batchStart; position < batchEnd; position++)
+					batchWeight += rowWeights[order[position]];
+				if (batchWeight <= 0)
+					continue;
+				double step = rate / batchWeight;
+				for (int w = 0; w < weights.length; w++) {
+					double change = step * gradients[0][w] + momentum * previousChanges[w];
+					weights[w] += change;
+					previousChanges[w] = change;
+				}
+			}
+			if (Double.isNaN(error) || Double.isInfinite(error))
+				return false;
+		}
+		return true;
+	}
+	
+	//Sums the gradient of the rows order[start] to order[end - 1] into gradient (cleared first).
+	//Returns their summed squared error.
+	private double backpropagate(double[] inputs, int[] classes, double[] rowWeights, int[] order, int start, int end,
+	double[] gradient, double[] activations, double[] deltas) {
+		Arrays.fill(gradient, 0);
+		int outputLayer = layerSizes.length - 1;
+		int outputStart = unitStart[outputLayer];
+		double error = 0;
+		for (int position = start; position < end; position++) {
+			int row = order[position];
+			System.arraycopy(inputs, row * numInputs, activations, 0, numInputs);
+			forward(activations);
+			
+			for (int j = 0; j < layerSizes[outputLayer]; j++) {
+				double output = activations[outputStart + j];
+				double difference = (j == classes[row] ? 1 : 0) - output;
+				error += difference * difference * rowWeights[row];
+				deltas[outputStart + j] = output * (1 - output) * difference * rowWeights[row];
+			}
+			for (int l = outputLayer - 1; l > 0; l--) {
+				int inputsPerUnit = layerSizes[l] + 1;
+				for (int i = 0; i < layerSizes[l]; i++) {
+					double sum = 0;
+					for (int j = 0; j < layerSizes[l + 1]; j++)
+						sum += weights[weightStart[l + 1] + j * inputsPerUnit + 1 + i] * deltas[unitStart[l + 1] + j];
+					double output = activations[unitStart[l] + i];
+					deltas[unitStart[l] + i] = output * (1 - output) * sum;
+				}
+			}
+			
+			for (int l = 1; l <= outputLayer; l++) {
+				int inputsPerUnit = layerSizes[l - 1] + 1;
+				int previousStart = unitStart[l - 1];
+				for (int j = 0; j < layerSizes[l]; j++) {
+					double delta = deltas[unitStart[l] + j];
+					int w = weightStart[l] + j * inputsPerUnit;
+					gradient[w] += delta;
+					for (int i = 0; i < layerSizes[l - 1]; i++)
+						gradient[w + 1 + i] += delta * activations[previousStart + i];
+				}
+			}
+		}
+		return error;
+	}
+	
+	//Fills every unit's activation from the inputs already in activations[0, numInputs).
+	private void forward(double[] activations) {
+		for (int l = 1; l < layerSizes.length; l++) {
+			int inputsPerUnit = layerSizes[l - 1] + 1;
+			int previousStart = unitStart[l - 1];
+			for (int j = 0; j < layerSizes[l]; j++) {
+				int w = weightStart[l] + j * inputsPerUnit;
+				double sum = weights[w];
+				for (int i = 0; i < layerSizes[l - 1]; i++)
+					sum += weights[w + 1 + i] * activations[previousStart + i];
+				activations[unitStart[l] + j] = sigmoid(sum);
+			}
+		}
+	}
+	
+	//Same cut offs as Weka's SigmoidUnit.
+	private static double sigmoid(double x) {
+		if (x < -45)
+			return 0;
+		if (x > 45)
+			return 1;
+		return 1 / (1 + Math.exp(-x));
+	}
+	
+	private static void shuffle(int[] order, Random random) {
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+	}
+	
+	//Lays out the inputs and finds the replacement for missing values and the [-1, 1] scaling of
+	//every input from the training data.
+	private void setUpInputs(Instances data) {
+		int numAttributes = data.numAttributes();
+		inputStart = new int[numAttributes];
+		nominal = new boolean[numAttributes];
+		binary = new boolean[numAttributes];
+		replacements = new double[numAttributes];
+		numInputs = 0;
+		for (int a = 0; a < numAttributes; a++) {
+			inputStart[a] = numInputs;
+			if (a == classIndex)
+				continue;
+			Attribute attribute = data.attribute(a);
+			nominal[a] = attribute.isNominal();
+			binary[a] = nominal[a] && attribute.numValues() <= 2;
+			numInputs += nominal[a] && !binary[a] ? attribute.numValues() : 1;
+			
+			double[] counts = new double[nominal[a] ? attribute.numValues() : 0];
+			double sum = 0, weight = 0;
+			for (Instance instance : data) {
+				double value = instance.value(a);
+				if (Utils.isMissingValue(value))
+					continue;
+				if (nominal[a]) {
+					counts[(int) value] += instance.weight();
+				} else {
+					sum += value * instance.weight();
+					weight += instance.weight();
+				}
+			}
+			replacements[a] = nominal[a] ? maxIndex(counts) : weight > 0 ? sum / weight : 0;
+		}
+		
+		inputBases = null;
+		double[] min = new double[numInputs];
+		double[] max = new double[numInputs];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		double[] encoded = new double[numInputs];
+		for (Instance instance : data) {
+			if (instance.classIsMissing())
+				continue;
+			encode(instance, encoded, 0);
+			for (int i = 0; i < numInputs; i++) {
+				min[i] = Math.min(min[i], encoded[i]);
+				max[i] = Math.max(max[i], encoded[i]);
+			}
+		}
+		double[] bases = new double[numInputs];
+		double[] ranges = new double[numInputs];
+		for (int i = 0; i < numInputs; i++) {
+			bases[i] = min[i] <= max[i] ? (max[i] + min[i]) / 2 : 0;
+			ranges[i] = min[i] < max[i] ? (max[i] - min[i]) / 2 : 1;
+		}
+		inputBases = bases;
+		inputRanges = ranges;
+	}
+	
+	private void setUpLayers(int numClasses) {
+		String[] hidden = hiddenLayers.trim().isEmpty() || hiddenLayers.trim().equals("0") ? new String[0]
+				: hiddenLayers.split(",");
+		layerSizes = new int[hidden.length + 2];
+		layerSizes[0] = numInputs;
+		for (int l = 0; l < hidden.length; l++) {
+			String size = hidden[l].trim();
+			switch (size) {
+			case "a":
+				layerSizes[l + 1] = (numInputs + numClasses) / 2;
+				break;
+			case "i":
+				layerSizes[l + 1] = numInputs;
+				break;
+			case "o":
+				layerSizes[l + 1] = numClasses;
+				break;
+			case "t":
+				layerSizes[l + 1] = numInputs + numClasses;
+				break;
+			default:
+				layerSizes[l + 1] = Integer.parseInt(size);
+			}
+			if (layerSizes[l + 1] < 1)
+				throw new IllegalArgumentException("Hidden layer " + (l + 1) + " has no units: " + hiddenLayers);
+		}
+		layerSizes[layerSizes.length - 1] = numClasses;
+		
+		unitStart = new int[layerSizes.length];
+		weightStart = new int[layerSizes.length + 1];
+		for (int l = 1; l < layerSizes.length; l++) {
+			unitStart[l] = unitStart[l - 1] + layerSizes[l - 1];
+			weightStart[l + 1] = weightStart[l] + layerSizes[l] * (layerSizes[l - 1] + 1);
+		}
+		numUnits = unitStart[layerSizes.length - 1] + numClasses;
+	}
+	
+	//Writes the scaled inputs of the instance to values[offset, offset + numInputs).
+	private void encode(Instance instance, double[] values, int offset) {
+		for (int a = 0; a < inputStart.length; a++) {
+			if (a == classIndex)
+				continue;
+			double value = instance.value(a);
+			if (Utils.isMissingValue(value))
+				value = replacements[a];
+			int input = offset + inputStart[a];
+			if (nominal[a] && !binary[a]) {
+				int numValues = (a + 1 < inputStart.length ? inputStart[a + 1] : numInputs) - inputStart[a];
+				for (int v = 0; v < numValues; v++)
+					values[input + v] = v == (int) value ? 1 : 0;
+			} else {
+				values[input] = value;
+			}
+		}
+		if (inputBases == null) //Still finding the scaling.
+			return;
+		for (int i = 0; i < numInputs; i++)
+			values[offset + i] = (values[offset + i] - inputBases[i]) / inputRanges[i];
+	}
+	
+	private static int maxIndex(double[] values) {
+		int best = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[best])
+				best = i;
+		}
+		return best;
+	}
+}
@@ -0,0 +1,146 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+//Keeps trained classifiers so that training the same classifier, with the same options, on the
+//same data again can be skipped. Entries are keyed by a hash of the training data and the
+//classifier's class and options. Recently used models are kept in memory, and every model is
+//also serialized to disk, where the least recently used files are deleted once the directory
+//grows past its size limit. A hit in either tier marks the model file as used. Both tiers hand
+//out the same trained instance to every caller of get with that key, so callers must only
+//predict with it (CachedClassifier does).
+public class ModelCache {
+	private final File directory;
+	private final long maxDiskBytes;
+	private final Map<String, Classifier> memory;
+	private int hits, misses;
+	
+	public ModelCache(File directory, long maxDiskBytes, final int maxMemoryEntries) {
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+		directory.mkdirs();
+		memory = new LinkedHashMap<String, Classifier>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Classifier> eldest) {
+				return size() > maxMemoryEntries;
+			}
+		};
+	}
+	
+	//Returns the trained model for the key, or null if it is in neither tier.
+	public synchronized Classifier get(String key) {
+		Classifier classifier = memory.get(key);
+		if (classifier != null) {
+			fileFor(key).setLastModified(System.currentTimeMillis());
+		} else {
+			File file = fileFor(key);
+			if (file.exists()) {
+				try {
+					classifier = (Classifier) SerializationHelper.read(file.getPath());
+					file.setLastModified(System.currentTimeMillis());
+					memory.put(key, classifier);
+				} catch (Exception e) {
+					//Unreadable entries (e.g. written by another Weka version) are rebuilt.
+					file.delete();
+				}
+			}
+		}
+		
+		if (classifier == null)
+			misses++;
+		else
+			hits++;
+		return classifier;
+	}
+	
+	public synchronized void put(String key, Classifier classifier) {
+		memory.put(key, classifier);
+		try {
+			File temp = new File(directory, key + ".tmp");
+			SerializationHelper.write(temp.getPath(), classifier);
+			File file = fileFor(key);
+			file.delete();
+			if (!temp.renameTo(file))
+				temp.delete();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		evict();
+	}
+	
+	public synchronized String statistics() {
+		return "Model cache: " + hits + " hits, " + misses + " misses";
+	}
+	
+	//Deletes the least recently used model files until the directory fits in maxDiskBytes.
+	private void evict() {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".model"));
+		if (files == null)
+			return;
+		
+		long totalBytes = 0;
+		for (File file : files)
+			totalBytes += file.length();
+		
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < files.length && totalBytes > maxDiskBytes; i++) {
+			totalBytes -= files[i].length();
+			files[i].delete();
+		}
+	}
+	
+	private File fileFor(String key) {
+		return new File(directory, key + ".model");
+	}
+	
+	//Hashes the classifier's class and options together with the header and every value and
+	//weight of the training data.
+	public static String key(Classifier classifier, Instances data) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		String options = classifier.getClass().getName();
+		if (classifier instanceof OptionHandler)
+			options += " " + Utils.joinOptions(((OptionHandler) classifier).getOptions());
+		digest.update(options.getBytes(StandardCharsets.UTF_8));
+		digest.update(new Instances(data, 0).toString().getBytes(StandardCharsets.UTF_8));
+		
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		buffer.putInt(data.classIndex());
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			if (buffer.remaining() < 8 * (instance.numAttributes() + 1)) {
+				digest.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			buffer.putDouble(instance.weight());
+			for (int a = 0; a < instance.numAttributes(); a++)
+				buffer.putDouble(instance.value(a));
+		}
+		digest.update(buffer.array(), 0, buffer.position());
+		
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())
+			key.append(String.format("%02x", b));
+		return key.toString();
+	}
+}
@@ -0,0 +1,65 @@
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.functions.MultilayerPerceptron;
+import weka.core.Instances;
+
+//Compares MiniBatchMLP with MultilayerPerceptron, both set up like Main's neural network, on
+//generated data of growing size: time per epoch and accuracy on the test set. MiniBatchMLP is
+//also run with a mini-batch of 1 and MultilayerPerceptron's learning rate, which is the same
+//per-instance training, to separate the gain from flat arrays from the gain from mini-batches.
+//
+//Usage: java NeuralNetworkBenchmark [epochs] [training rows...]  (defaults to 100 1000 10000 100000)
+public class NeuralNetworkBenchmark {
+	private static final long SEED = 7641;
+	
+	public static void main(String[] args) throws Exception {
+		int epochs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int[] sizes = { 1000, 10000, 100000 };
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				sizes[i - 1] = Integer.parseInt(args[i]);
+		}
+		
+		System.out.println(String.format("%-22s %10s %-26s %12s %10s",
+				"dataset", "rows", "classifier", "ms/epoch", "accuracy"));
+		for (int size : sizes) {
+			Instances[] customers = CustomerSatisfactionARFFGenerator.generateInstances(size, SEED);
+			compare("customer satisfaction", customers[0], customers[1], epochs);
+			customers = null;
+			
+			Instances[] pokemon = PokemonARFFGenerator.generateInstances(Math.max(1, size / 34), SEED);
+			compare("pokemon", pokemon[0], pokemon[1], epochs);
+		}
+	}
+	
+	private static void compare(String dataSetName, Instances training, Instances test, int epochs) throws Exception {
+		MultilayerPerceptron multilayerPerceptron = Main.createNeuralNetwork();
+		multilayerPerceptron.setTrainingTime(epochs);
+		run(dataSetName, training, test, "MultilayerPerceptron", multilayerPerceptron, epochs);
+		
+		MiniBatchMLP perInstance = Main.createMiniBatchNeuralNetwork();
+		perInstance.setTrainingTime(epochs);
+		perInstance.setMiniBatchSize(1);
+		perInstance.setLearningRate(multilayerPerceptron.getLearningRate());
+		run(dataSetName, training, test, "MiniBatchMLP (batch 1)", perInstance, epochs);
+		
+		MiniBatchMLP miniBatch = Main.createMiniBatchNeuralNetwork();
+		miniBatch.setTrainingTime(epochs);
+		run(dataSetName, training, test, "MiniBatchMLP (batch " + miniBatch.getMiniBatchSize() + ")", miniBatch, epochs);
+	}
+	
+	private static void run(String dataSetName, Instances training, Instances test, String classifierName,
+	Classifier classifier, int epochs) throws Exception {
+		long startTime = System.nanoTime();
+		classifier.buildClassifier(training);
+		long buildTime = System.nanoTime() - startTime;
+		if (classifier instanceof MiniBatchMLP)
+			epochs = ((MiniBatchMLP) classifier).getEpochsRun();
+		
+		Evaluation evaluation = new Evaluation(training);
+		evaluation.evaluateModel(classifier, test);
+		System.out.println(String.format("%-22s %10d %-26s %12.2f %9.2f%%", dataSetName, training.numInstances(),
+				classifierName, buildTime / 1000000.0 / epochs, 100.0 * evaluation.correct() / evaluation.numInstances()));
+	}
+}
@@ -0,0 +1,58 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.AggregateableEvaluation;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+//Evaluates a trained classifier by splitting the test set into one chunk per thread. Every 
+//chunk is scored against its own copy of the classifier, since Weka does not promise that 
+//distributionForInstance is thread safe, and the chunk evaluations are then merged. Merging 
+//only adds up counts, so correct() and numInstances() come out the same as evaluating the 
+//whole test set on one thread.
+public class ParallelEvaluation {
+	public static Evaluation evaluate(Classifier classifier, Instances trainingData, Instances testData, 
+	int numThreads) throws Exception {
+		if (testData.numInstances() == 0)
+			return new Evaluation(trainingData);
+		
+		int numChunks = Math.max(1, Math.min(numThreads, testData.numInstances()));
+		int chunkSize = (testData.numInstances() + numChunks - 1) / numChunks;
+		
+		Classifier[] copies = AbstractClassifier.makeCopies(classifier, numChunks);
+		ExecutorService executor = Executors.newFixedThreadPool(numChunks);
+		try {
+			List<Future<Evaluation>> chunks = new ArrayList<Future<Evaluation>>();
+			for (int i = 0; i < numChunks; i++) {
+				final int from = i * chunkSize;
+				final int size = Math.min(chunkSize, testData.numInstances() - from);
+				final Classifier copy = copies[i];
+				if (size <= 0)
+					break;
+				
+				chunks.add(executor.submit(() -> {
+					Evaluation evaluation = new Evaluation(trainingData);
+					evaluation.evaluateModel(copy, new Instances(testData, from, size));
+					return evaluation;
+				}));
+			}
+			
+			AggregateableEvaluation evaluation = new AggregateableEvaluation(trainingData);
+			for (Future<Evaluation> chunk : chunks)
+				evaluation.aggregate(chunk.get());
+			return evaluation;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
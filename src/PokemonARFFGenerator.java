@@ -1,15 +1,71 @@
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
 
 public class PokemonARFFGenerator {
 	private static final int WRITES_PER_POKEMON_TEST = 100;
 	
+	private static final String[] TYPES = { "grass", "fire", "water", "bug", "flying", "normal", 
+		"poison", "electric", "ground" };
+	
+	private static final Species[] SPECIES = {
+		new Species("grass", 0.7f, 6.9f, "Bulbasaur"),
+		new Species("grass", 1.0f, 13.0f, "Ivysaur"),
+		new Species("grass", 2.0f, 100.0f, "Venusaur"),
+		
+		new Species("fire", 0.6f, 8.5f, "Charmander"),
+		new Species("fire", 1.1f, 19.0f, "Charmeleon"),
+		new Species("fire", 1.7f, 90.5f, "Charizard"),
+		
+		new Species("water", 0.5f, 9.0f, "Squirtle"),
+		new Species("water", 1.0f, 22.5f, "Wartortle"),
+		new Species("water", 1.6f, 85.5f, "Blastoise"),
+		
+		new Species("bug", 0.3f, 2.9f, "Caterpie"),
+		new Species("bug", 0.7f, 9.9f, "Metapod"),
+		new Species("bug", 1.1f, 32.0f, "Butterfree"),
+		
+		new Species("bug", 0.3f, 3.2f, "Weedle"),
+		new Species("bug", 0.6f, 10.0f, "Kakuna"),
+		new Species("bug", 1.0f, 29.5f, "Beedrill"),
+		
+		new Species("flying", 0.3f, 4.0f, "Pidgey"),
+		new Species("flying", 1.1f, 30.0f, "Pidgeotto"),
+		new Species("flying", 1.5f, 39.5f, "Pidgeot"),
+		
+		new Species("normal", 0.3f, 3.5f, "Rattata"),
+		new Species("normal", 0.7f, 18.5f, "Raticate"),
+		
+		new Species("flying", 0.3f, 2.0f, "Spearow"),
+		new Species("flying", 1.2f, 38.0f, "Fearow"),
+		
+		new Species("poison", 2.0f, 6.9f, "Ekans"),
+		new Species("poison", 3.5f, 65.0f, "Arbok"),
+		
+		new Species("electric", 0.4f, 6.0f, "Pikachu"),
+		new Species("electric", 0.8f, 30.0f, "Raichu"),
+		
+		new Species("ground", 0.6f, 12.0f, "Sandshrew"),
+		new Species("ground", 1.0f, 29.5f, "Sandslash"),
+		
+		new Species("poison", 0.4f, 7.0f, "NidoranF"),
+		new Species("poison", 0.8f, 20.0f, "Nidorina"),
+		new Species("poison", 1.3f, 60.0f, "Nidoqueen"),
+		
+		new Species("poison", 0.5f, 9.0f, "NidoranM"),
+		new Species("poison", 0.9f, 19.5f, "Nidorino"),
+		new Species("poison", 1.4f, 62.0f, "Nidoking")
+	};
+	
 	//Creates two arff files. One contains the training data for the pokemon and the other 
 	//contains the test data.
 	public static void generateFile(int writesPerPokemonTraining, boolean showOutput) {
@@ -23,73 +79,15 @@ public class PokemonARFFGenerator {
 				if (file.equals(test))
 					writesPerPokemon = WRITES_PER_POKEMON_TEST;
 				
-				FileOutputStream outputStream = new FileOutputStream(file);
-				BufferedWriter bufferedWriter 
-					= new BufferedWriter(new OutputStreamWriter(outputStream));
+				ARFFWriter writer = new ARFFWriter(file);
 				
-				WriteLine(bufferedWriter, "@RELATION pokemon");
-				WriteLine(bufferedWriter, "");
-				
-				WriteLine(bufferedWriter, "@ATTRIBUTE	type	{grass,fire,water,bug,flying,normal,poison,electric,ground}");
-				WriteLine(bufferedWriter, "@ATTRIBUTE	height	REAL");
-				WriteLine(bufferedWriter, "@ATTRIBUTE	weight	REAL");
-				WriteLine(bufferedWriter, "@ATTRIBUTE	name	{Bulbasaur,Ivysaur,Venusaur," + 
-				"Charmander,Charmeleon,Charizard,Squirtle,Wartortle,Blastoise,Caterpie,Metapod," + 
-				"Butterfree,Weedle,Kakuna,Beedrill,Pidgey,Pidgeotto,Pidgeot,Rattata,Raticate," + 
-				"Spearow,Fearow,Ekans,Arbok,Pikachu,Raichu,Sandshrew Sandslash,NidoranF,Nidorina," +
-				"Nidoqueen,NidoranM,Nidorino,Nidoking}");
-				WriteLine(bufferedWriter, "");
+				WriteHeader(writer);
 				
 				Random rand = new Random();
-				WriteLine(bufferedWriter, "@DATA");
-				WritePokemon(bufferedWriter, rand, "grass", 0.7f, 6.9f, "Bulbasaur", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "grass", 1.0f, 13.0f, "Ivysaur", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "grass", 2.0f, 100.0f, "Venusaur", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "fire", 0.6f, 8.5f, "Charmander", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "fire", 1.1f, 19.0f, "Charmeleon", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "fire", 1.7f, 90.5f, "Charizard", writesPerPokemon);
+				for (Species species : SPECIES)
+					WritePokemon(writer, rand, species, writesPerPokemon);
 				
-				WritePokemon(bufferedWriter, rand, "water", 0.5f, 9.0f, "Squirtle", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "water", 1.0f, 22.5f, "Wartortle", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "water", 1.6f, 85.5f, "Blastoise", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "bug", 0.3f, 2.9f, "Caterpie", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "bug", 0.7f, 9.9f, "Metapod", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "bug", 1.1f, 32.0f, "Butterfree", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "bug", 0.3f, 3.2f, "Weedle", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "bug", 0.6f, 10.0f, "Kakuna", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "bug", 1.0f, 29.5f, "Beedrill", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "flying", 0.3f, 4.0f, "Pidgey", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "flying", 1.1f, 30.0f, "Pidgeotto", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "flying", 1.5f, 39.5f, "Pidgeot", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "normal", 0.3f, 3.5f, "Rattata", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "normal", 0.7f, 18.5f, "Raticate", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "flying", 0.3f, 2.0f, "Spearow", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "flying", 1.2f, 38.0f, "Fearow", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "poison", 2.0f, 6.9f, "Ekans", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "poison", 3.5f, 65.0f, "Arbok", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "electric", 0.4f, 6.0f, "Pikachu", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "electric", 0.8f, 30.0f, "Raichu", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "ground", 0.6f, 12.0f, "Sandshrew", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "ground", 1.0f, 29.5f, "Sandslash", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "poison", 0.4f, 7.0f, "NidoranF", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "poison", 0.8f, 20.0f, "Nidorina", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "poison", 1.3f, 60.0f, "Nidoqueen", writesPerPokemon);
-				
-				WritePokemon(bufferedWriter, rand, "poison", 0.5f, 9.0f, "NidoranM", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "poison", 0.9f, 19.5f, "Nidorino", writesPerPokemon);
-				WritePokemon(bufferedWriter, rand, "poison", 1.4f, 62.0f, "Nidoking", writesPerPokemon);
-				
-				bufferedWriter.close();
+				writer.close();
 				if (showOutput)
 					System.out.println("Finished writing to file " + file.getName());
 			}
@@ -100,27 +98,188 @@ public class PokemonARFFGenerator {
 		}
 	}
 	
-	private static void WriteLine(BufferedWriter bufferedWriter, String line) throws IOException {
-		bufferedWriter.write(line);
-		bufferedWriter.newLine();
+	//Same as generateFile, but every species is generated as a separate task across all cores 
+	//from its own SplittableRandom split off the seed, so the same seed always produces the 
+	//same files.
+	public static void generateFileParallel(int writesPerPokemonTraining, long seed, boolean showOutput) {
+		File training = new File("data" + File.separator + Main.POKEMON_TRAINING_DATA_SET);
+		File test = new File("data" + File.separator + Main.POKEMON_TEST_DATA_SET);
+		
+		try {
+			SplittableRandom[] fileStreams = ShardedGeneration.splitStreams(seed, 2);
+			File[] files = new File[] { training, test };
+			for (int f = 0; f < files.length; f++) {
+				File file = files[f];
+				final int writesPerPokemon = file.equals(test) ? WRITES_PER_POKEMON_TEST 
+						: writesPerPokemonTraining;
+				
+				SplittableRandom[] streams = ShardedGeneration.splitStreams(
+						fileStreams[f].nextLong(), SPECIES.length);
+				List<ShardedGeneration.Shard> shards = new ArrayList<ShardedGeneration.Shard>();
+				for (int i = 0; i < SPECIES.length; i++) {
+					final Species species = SPECIES[i];
+					final SplittableRandom rand = streams[i];
+					shards.add(writer -> {
+						for (int j = 0; j < writesPerPokemon; j++)
+							WritePokemon(writer, species, 
+									ShardedGeneration.nextGaussian(rand), ShardedGeneration.nextGaussian(rand));
+					});
+				}
+				
+				ShardedGeneration.writeShards(file, Header(), shards);
+				if (showOutput)
+					System.out.println("Finished writing to file " + file.getName());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	//Generates the training and test data straight into Instances, skipping the ARFF text. Uses 
+	//the same random streams as generateFileParallel, so for the same seed the data is the same 
+	//as what generateFileParallel writes.
+	public static Instances[] generateInstances(int writesPerPokemonTraining, long seed) {
+		return generateInstances(writesPerPokemonTraining, seed, false);
 	}
 	
-	private static void WritePokemon(BufferedWriter bufferedWriter, Random rand, String type, 
-	float height, float weight, String name, int numWrites) throws IOException {
-		for (int i = 0; i < numWrites; i++) {
-			float std = .1f;
-			
-			float randomHeight = (float) (height + (rand.nextGaussian() * height * std));
-			float randomWeight = (float) (weight + (rand.nextGaussian() * weight * std));
-			
-			WriteLine(bufferedWriter, type + "," + round(randomHeight, 2) + "," + 
-					round(randomWeight, 2) + "," + name);
-		}
+	//As above, optionally into ColumnarInstances, which the shards fill in place. The data is the 
+	//same either way, apart from heights and weights being stored as floats.
+	public static Instances[] generateInstances(int writesPerPokemonTraining, long seed, boolean columnar) {
+		SplittableRandom[] fileStreams = ShardedGeneration.splitStreams(seed, 2);
+		return new Instances[] { 
+			generateDataSet(writesPerPokemonTraining, fileStreams[0].nextLong(), columnar),
+			generateDataSet(WRITES_PER_POKEMON_TEST, fileStreams[1].nextLong(), columnar)
+		};
+	}
+	
+	private static Instances generateDataSet(final int writesPerPokemon, long seed, boolean columnar) {
+		final SplittableRandom[] streams = ShardedGeneration.splitStreams(seed, SPECIES.length);
+		final int numRows = SPECIES.length * writesPerPokemon;
+		final ColumnarInstances columns = columnar ? ColumnarInstances.create(createHeader(0), numRows) : null;
+		final double[][] pokemon = columnar ? null : new double[numRows][];
+		ShardedGeneration.fillShards(SPECIES.length, shard -> {
+			Species species = SPECIES[shard];
+			SplittableRandom rand = streams[shard];
+			double[] buffer = columnar ? new double[4] : null;
+			for (int i = 0; i < writesPerPokemon; i++) {
+				float randomHeight = randomSize(species.height, ShardedGeneration.nextGaussian(rand));
+				float randomWeight = randomSize(species.weight, ShardedGeneration.nextGaussian(rand));
+				double[] row = columnar ? buffer : new double[4];
+				row[0] = species.typeIndex;
+				row[1] = roundToHundredths(randomHeight);
+				row[2] = roundToHundredths(randomWeight);
+				row[3] = shard;
+				if (columnar)
+					columns.setRow(shard * writesPerPokemon + i, row);
+				else
+					pokemon[shard * writesPerPokemon + i] = row;
+			}
+		});
+		if (columnar)
+			return columns;
+		
+		Instances data = createHeader(pokemon.length);
+		for (double[] row : pokemon)
+			data.add(new DenseInstance(1.0, row));
+		return data;
+	}
+	
+	//Builds the empty dataset with the same attributes as the ARFF header.
+	public static Instances createHeader(int capacity) {
+		ArrayList<String> names = new ArrayList<String>();
+		for (Species species : SPECIES)
+			names.add(species.name);
+		
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("type", Arrays.asList(TYPES)));
+		attributes.add(new Attribute("height"));
+		attributes.add(new Attribute("weight"));
+		attributes.add(new Attribute("name", names));
+		
+		Instances data = new Instances("pokemon", attributes, capacity);
+		data.setClassIndex(data.numAttributes() - 1);
+		return data;
 	}
 	
-	private static float round(float d, int decimalPlace) {
-	    BigDecimal bd = new BigDecimal(Float.toString(d));
-	    bd = bd.setScale(decimalPlace, BigDecimal.ROUND_HALF_UP);
-	    return bd.floatValue();
+	private static String Header() {
+		String newLine = System.lineSeparator();
+		return "@RELATION pokemon" + newLine
+			+ newLine
+			+ "@ATTRIBUTE	type	{grass,fire,water,bug,flying,normal,poison,electric,ground}" + newLine
+			+ "@ATTRIBUTE	height	REAL" + newLine
+			+ "@ATTRIBUTE	weight	REAL" + newLine
+			+ "@ATTRIBUTE	name	{Bulbasaur,Ivysaur,Venusaur," + 
+			"Charmander,Charmeleon,Charizard,Squirtle,Wartortle,Blastoise,Caterpie,Metapod," + 
+			"Butterfree,Weedle,Kakuna,Beedrill,Pidgey,Pidgeotto,Pidgeot,Rattata,Raticate," + 
+			"Spearow,Fearow,Ekans,Arbok,Pikachu,Raichu,Sandshrew Sandslash,NidoranF,Nidorina," +
+			"Nidoqueen,NidoranM,Nidorino,Nidoking}" + newLine
+			+ newLine
+			+ "@DATA" + newLine;
+	}
+	
+	private static void WriteHeader(ARFFWriter writer) throws IOException {
+		writer.write(ARFFWriter.encode(Header()));
+	}
+	
+	private static void WritePokemon(ARFFWriter writer, Random rand, Species species, 
+	int numWrites) throws IOException {
+		for (int i = 0; i < numWrites; i++)
+			WritePokemon(writer, species, rand.nextGaussian(), rand.nextGaussian());
+	}
+	
+	//Writes one row given the two standard normal draws for height and weight, without 
+	//allocating.
+	private static void WritePokemon(ARFFWriter writer, Species species, 
+	double heightNoise, double weightNoise) throws IOException {
+		float randomHeight = randomSize(species.height, heightNoise);
+		float randomWeight = randomSize(species.weight, weightNoise);
+		
+		writer.write(species.typeBytes);
+		writer.write(',');
+		writer.writeFixed(hundredths(randomHeight), 2);
+		writer.write(',');
+		writer.writeFixed(hundredths(randomWeight), 2);
+		writer.write(',');
+		writer.write(species.nameBytes);
+		writer.newLine();
+	}
+	
+	private static float randomSize(float mean, double noise) {
+		float std = .1f;
+		return (float) (mean + (noise * mean * std));
+	}
+	
+	//Rounds to two decimals the way BigDecimal(Float.toString(d)).setScale(2, ROUND_HALF_UP) 
+	//does, but without allocating: Float.toString prints a half way digit for any float within 
+	//half an ulp of it, so nudge by half an ulp before rounding half up.
+	static long hundredths(float d) {
+		double magnitude = Math.abs((double) d) + Math.ulp(d) / 2;
+		long rounded = (long) Math.floor(magnitude * 100 + 0.5);
+		return d < 0 ? -rounded : rounded;
+	}
+	
+	//Same value a row written with hundredths() parses back to.
+	private static double roundToHundredths(float d) {
+		return hundredths(d) / 100.0;
+	}
+	
+	private static class Species {
+		final String type;
+		final int typeIndex;
+		final byte[] typeBytes;
+		final float height;
+		final float weight;
+		final String name;
+		final byte[] nameBytes;
+		
+		Species(String type, float height, float weight, String name) {
+			this.type = type;
+			this.typeIndex = Arrays.asList(TYPES).indexOf(type);
+			this.typeBytes = ARFFWriter.encode(type);
+			this.height = height;
+			this.weight = weight;
+			this.name = name;
+			this.nameBytes = ARFFWriter.encode(name);
+		}
 	}
 }
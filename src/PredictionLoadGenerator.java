@@ -0,0 +1,97 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Drives a PredictionServer with random customers from several threads, each sending its next
+//request as soon as the last one is answered. The first WARMUP_SECONDS are not counted. Prints the
+//throughput and latency seen by the clients, then the server's own /stats.
+//
+//Usage: java PredictionLoadGenerator [url] [threads] [seconds] [customers per request]
+//(defaults to http://localhost:8080 16 30 1)
+public class PredictionLoadGenerator {
+	private static final int WARMUP_SECONDS = 5;
+	private static final long SEED = 7641;
+	
+	public static void main(String[] args) throws Exception {
+		final String url = args.length > 0 ? args[0] : "http://localhost:8080";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		final int customersPerRequest = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+		
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong failures = new AtomicLong();
+		final long measureStart = System.nanoTime() + WARMUP_SECONDS * 1000000000L;
+		final long end = measureStart + seconds * 1000000000L;
+		final SplittableRandom seedRandom = new SplittableRandom(SEED);
+		
+		List<Thread> clients = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final SplittableRandom rand = seedRandom.split();
+			Thread client = new Thread(() -> {
+				while (System.nanoTime() < end) {
+					StringBuilder body = new StringBuilder();
+					for (int i = 0; i < customersPerRequest; i++)
+						body.append(CustomerSatisfactionARFFGenerator.randomQuery(rand)).append('\n');
+					
+					long requestStart = System.nanoTime();
+					try {
+						post(url + "/predict", body.toString());
+						if (requestStart >= measureStart)
+							latency.record(System.nanoTime() - requestStart);
+					} catch (IOException e) {
+						if (requestStart >= measureStart)
+							failures.incrementAndGet();
+					}
+				}
+			});
+			clients.add(client);
+			client.start();
+		}
+		for (Thread client : clients)
+			client.join();
+		
+		System.out.println(String.format("Clients: %d threads, %d customers per request, %.1f requests/s, %d failed",
+				threads, customersPerRequest, latency.count() / (double) seconds, failures.get()));
+		System.out.println("Client latency: " + latency.summary());
+		System.out.println();
+		System.out.print("Server: " + get(url + "/stats"));
+	}
+	
+	private static String post(String url, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		connection.setFixedLengthStreamingMode(bytes.length);
+		OutputStream out = connection.getOutputStream();
+		out.write(bytes);
+		out.close();
+		return read(connection);
+	}
+	
+	private static String get(String url) throws IOException {
+		return read((HttpURLConnection) new URL(url).openConnection());
+	}
+	
+	//Reads the whole response, so the connection can be reused for the next request.
+	private static String read(HttpURLConnection connection) throws IOException {
+		if (connection.getResponseCode() != 200)
+			throw new IOException("HTTP " + connection.getResponseCode());
+		InputStream in = connection.getInputStream();
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+			response.write(buffer, 0, read);
+		in.close();
+		return new String(response.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
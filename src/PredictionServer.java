@@ -0,0 +1,390 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.BatchPredictor;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+//Serves a trained customer satisfaction classifier over HTTP on localhost.
+//
+//POST /predict with one customer per line ("gender,age,income,race", ? for missing) answers one
+//line per customer: the predicted satisfaction level followed by the class distribution.
+//GET /stats answers the request and row counters, throughput, the average batch size, and the
+//p50/p99 latency of requests (as seen by the server) and of the batches given to the classifier.
+//
+//Rows are decoded into pooled Instances whose values array is written in place, scanning the
+//request body by index, so once the pool has warmed up decoding does not allocate per row; only
+//numbers other than plain decimals of up to 15 digits go through Double.parseDouble. Requests
+//that arrive together are grouped into micro-batches of up to MAX_BATCH_ROWS rows: a batch waits
+//at most BATCH_WINDOW_NANOS for more requests after its first one. Every predictor thread has its
+//own copy of the model, since most Weka classifiers are not safe to call from several threads.
+//
+//Usage: java PredictionServer <model file | classifier name> [port]
+//A model file is read with SerializationHelper (e.g. one from the model cache). A classifier name
+//as used by Main ("decision tree", "knn", "svm", "neural network", "boosting") is trained on the
+//customer satisfaction training file first.
+public class PredictionServer {
+	private static final int DEFAULT_PORT = 8080;
+	private static final int HTTP_THREADS = 64;
+	private static final int PREDICTOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final int MAX_BATCH_ROWS = 64;
+	private static final long BATCH_WINDOW_NANOS = 200000;
+	private static final int MAX_QUEUED_REQUESTS = 10000;
+	private static final int MAX_POOLED_INSTANCES = 1 << 16;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15 };
+	
+	private final Instances header;
+	private final BlockingQueue<Request> queue = new ArrayBlockingQueue<Request>(MAX_QUEUED_REQUESTS);
+	private final BlockingQueue<PooledInstance> pool = new ArrayBlockingQueue<PooledInstance>(MAX_POOLED_INSTANCES);
+	
+	private final long startTime = System.nanoTime();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final LatencyHistogram requestLatency = new LatencyHistogram();
+	private final LatencyHistogram batchLatency = new LatencyHistogram();
+	
+	public PredictionServer(Classifier model, int port) throws Exception {
+		header = CustomerSatisfactionARFFGenerator.createHeader(0);
+		
+		Classifier[] copies = AbstractClassifier.makeCopies(model, PREDICTOR_THREADS);
+		for (final Classifier copy : copies) {
+			Thread predictor = new Thread(() -> predict(copy), "predictor");
+			predictor.setDaemon(true);
+			predictor.start();
+		}
+		
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/predict", this::handlePredict);
+		server.createContext("/stats", this::handleStats);
+		server.setExecutor(Executors.newFixedThreadPool(HTTP_THREADS));
+		server.start();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage: java PredictionServer <model file | classifier name> [port]");
+			return;
+		}
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+		
+		Classifier model;
+		if (new File(args[0]).exists()) {
+			model = (Classifier) SerializationHelper.read(args[0]);
+		} else {
+			Instances training = Main.loadDataSet(Main.CUSTOMER_SATISFACTION_TRAINING_DATA_SET);
+			training.setClassIndex(training.numAttributes() - 1);
+			model = Main.createClassifier(args[0], false);
+			model.buildClassifier(training);
+		}
+		
+		new PredictionServer(model, port);
+		System.out.println("Serving " + model.getClass().getSimpleName() + " on http://localhost:" + port + "/predict");
+	}
+	
+	private void handlePredict(HttpExchange exchange) throws IOException {
+		long requestStart = System.nanoTime();
+		Request request = new Request();
+		boolean queued = false;
+		try {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				respond(exchange, 405, "Use POST with one customer per line.");
+				return;
+			}
+			decode(readBody(exchange.getRequestBody()), request);
+			if (request.instances.isEmpty()) {
+				respond(exchange, 400, "No customers in the request.");
+				return;
+			}
+			queued = queue.offer(request);
+			if (!queued) {
+				respond(exchange, 503, "Too many queued requests.");
+				return;
+			}
+			
+			double[][] distributions = request.result.get();
+			StringBuilder response = new StringBuilder();
+			Attribute classAttribute = header.classAttribute();
+			for (double[] distribution : distributions) {
+				response.append(classAttribute.value(Utils.maxIndex(distribution)));
+				for (double probability : distribution)
+					response.append(',').append(probability);
+				response.append('\n');
+			}
+			respond(exchange, 200, response.toString());
+			
+			requests.incrementAndGet();
+			rows.addAndGet(distributions.length);
+			requestLatency.record(System.nanoTime() - requestStart);
+		} catch (IllegalArgumentException e) {
+			errors.incrementAndGet();
+			respond(exchange, 400, e.getMessage());
+		} catch (InterruptedException | ExecutionException e) {
+			errors.incrementAndGet();
+			respond(exchange, 500, e.toString());
+		} finally {
+			//When the wait was interrupted, a predictor may still be reading the rows, so they only go
+			//back to the pool once their batch is done.
+			if (queued)
+				request.result.whenComplete((distributions, e) -> release(request));
+			else
+				release(request);
+		}
+	}
+	
+	private void release(Request request) {
+		for (PooledInstance instance : request.instances)
+			pool.offer(instance);
+	}
+	
+	private void handleStats(HttpExchange exchange) throws IOException {
+		double seconds = (System.nanoTime() - startTime) / 1000000000.0;
+		String stats = "requests " + requests.get() + ", rows " + rows.get() + ", errors " + errors.get()
+				+ ", batches " + batches.get() + "\n"
+				+ String.format("throughput %.1f requests/s, %.1f rows/s, average batch %.2f rows%n",
+						requests.get() / seconds, rows.get() / seconds, (double) rows.get() / Math.max(1, batches.get()))
+				+ "request latency: " + requestLatency.summary() + "\n"
+				+ "batch latency: " + batchLatency.summary() + "\n";
+		respond(exchange, 200, stats);
+	}
+	
+	//Parses "gender,age,income,race" lines into pooled instances. The lines and fields are found
+	//by index rather than split into strings.
+	private void decode(String body, Request request) {
+		int lines = 1;
+		for (int i = body.indexOf('\n'); i >= 0; i = body.indexOf('\n', i + 1))
+			lines++;
+		request.instances.ensureCapacity(lines);
+		int lineStart = 0;
+		while (lineStart < body.length()) {
+			int lineEnd = body.indexOf('\n', lineStart);
+			if (lineEnd < 0)
+				lineEnd = body.length();
+			int start = trimStart(body, lineStart, lineEnd), end = trimEnd(body, start, lineEnd);
+			if (start < end)
+				decodeLine(body, start, end, request);
+			lineStart = lineEnd + 1;
+		}
+	}
+	
+	private void decodeLine(String body, int start, int end, Request request) {
+		int numAttributes = header.numAttributes();
+		int fields = 1;
+		for (int i = start; i < end; i++) {
+			if (body.charAt(i) == ',')
+				fields++;
+		}
+		if (fields != numAttributes - 1 && fields != numAttributes)
+			throw new IllegalArgumentException("Expected " + (numAttributes - 1) + " values: " + body.substring(start, end));
+		
+		PooledInstance instance = pool.poll();
+		if (instance == null)
+			instance = new PooledInstance(header);
+		request.instances.add(instance);
+		int fieldStart = start;
+		for (int a = 0; a < numAttributes - 1; a++) {
+			int fieldEnd = body.indexOf(',', fieldStart);
+			if (fieldEnd < 0 || fieldEnd > end)
+				fieldEnd = end;
+			int valueStart = trimStart(body, fieldStart, fieldEnd);
+			instance.values[a] = parseValue(header.attribute(a), body, valueStart, trimEnd(body, valueStart, fieldEnd));
+			fieldStart = fieldEnd + 1;
+		}
+		instance.values[numAttributes - 1] = Utils.missingValue();
+	}
+	
+	private static double parseValue(Attribute attribute, String body, int start, int end) {
+		int length = end - start;
+		if (length == 1 && body.charAt(start) == '?')
+			return Utils.missingValue();
+		if (attribute.isNominal()) {
+			for (int v = 0; v < attribute.numValues(); v++) {
+				String value = attribute.value(v);
+				if (value.length() == length && body.regionMatches(start, value, 0, length))
+					return v;
+			}
+			throw new IllegalArgumentException("Unknown " + attribute.name() + ": " + body.substring(start, end));
+		}
+		double value = parseDecimal(body, start, end);
+		if (!Double.isNaN(value))
+			return value;
+		try {
+			return Double.parseDouble(body.substring(start, end));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number for " + attribute.name() + ": " + body.substring(start, end));
+		}
+	}
+	
+	//Plain decimals like "-12.5" with at most 15 digits, or NaN for anything else. Such a number
+	//is a long divided by a power of ten that are both exact doubles, so the one rounding gives
+	//the same double as Double.parseDouble.
+	private static double parseDecimal(String text, int start, int end) {
+		int i = start;
+		boolean negative = i < end && text.charAt(i) == '-';
+		if (negative || (i < end && text.charAt(i) == '+'))
+			i++;
+		long mantissa = 0;
+		int digits = 0, decimals = 0;
+		boolean point = false;
+		for (; i < end; i++) {
+			char c = text.charAt(i);
+			if (c == '.' && !point) {
+				point = true;
+			} else if (c >= '0' && c <= '9') {
+				if (++digits > 15)
+					return Double.NaN;
+				mantissa = mantissa * 10 + (c - '0');
+				if (point)
+					decimals++;
+			} else {
+				return Double.NaN;
+			}
+		}
+		if (digits == 0)
+			return Double.NaN;
+		double value = mantissa / POWERS_OF_TEN[decimals];
+		return negative ? -value : value;
+	}
+	
+	private static int trimStart(String text, int start, int end) {
+		while (start < end && text.charAt(start) <= ' ')
+			start++;
+		return start;
+	}
+	
+	private static int trimEnd(String text, int start, int end) {
+		while (end > start && text.charAt(end - 1) <= ' ')
+			end--;
+		return end;
+	}
+	
+	//Predictor thread: gathers requests into a batch, then classifies every row of the batch.
+	private void predict(Classifier classifier) {
+		List<Request> batch = new ArrayList<Request>();
+		boolean batchPredictor = classifier instanceof BatchPredictor
+				&& ((BatchPredictor) classifier).implementsMoreEfficientBatchPrediction();
+		while (true) {
+			try {
+				Request first = queue.take();
+				batch.add(first);
+				int batchRows = first.instances.size();
+				long deadline = System.nanoTime() + BATCH_WINDOW_NANOS;
+				while (batchRows < MAX_BATCH_ROWS) {
+					Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add(next);
+					batchRows += next.instances.size();
+				}
+				
+				long batchStart = System.nanoTime();
+				if (batchPredictor)
+					predictBatch((BatchPredictor) classifier, batch, batchRows);
+				else
+					predictEach(classifier, batch);
+				batchLatency.record(System.nanoTime() - batchStart);
+				batches.incrementAndGet();
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+	
+	private void predictEach(Classifier classifier, List<Request> batch) {
+		for (Request request : batch) {
+			try {
+				double[][] distributions = new double[request.instances.size()][];
+				for (int i = 0; i < distributions.length; i++)
+					distributions[i] = classifier.distributionForInstance(request.instances.get(i).instance);
+				request.result.complete(distributions);
+			} catch (Exception e) {
+				request.result.completeExceptionally(e);
+			}
+		}
+	}
+	
+	//For classifiers that answer a whole Instances at once faster (e.g. KDTreeKNN).
+	private void predictBatch(BatchPredictor classifier, List<Request> batch, int batchRows) {
+		try {
+			Instances instances = new Instances(header, batchRows);
+			for (Request request : batch) {
+				for (PooledInstance instance : request.instances)
+					instances.add(instance.instance);
+			}
+			double[][] distributions = classifier.distributionsForInstances(instances);
+			int next = 0;
+			for (Request request : batch) {
+				double[][] requestDistributions = new double[request.instances.size()][];
+				for (int i = 0; i < requestDistributions.length; i++)
+					requestDistributions[i] = distributions[next++];
+				request.result.complete(requestDistributions);
+			}
+		} catch (Exception e) {
+			for (Request request : batch)
+				request.result.completeExceptionally(e);
+		}
+	}
+	
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+			body.write(buffer, 0, read);
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+	
+	private static class Request {
+		private final ArrayList<PooledInstance> instances = new ArrayList<PooledInstance>();
+		private final CompletableFuture<double[][]> result = new CompletableFuture<double[][]>();
+	}
+	
+	//A DenseInstance over a values array it does not copy, so a new row is written straight into
+	//the array.
+	private static class PooledInstance {
+		private final double[] values;
+		private final Instance instance;
+		
+		PooledInstance(Instances header) {
+			values = new double[header.numAttributes()];
+			instance = new DenseInstance(1.0, values);
+			instance.setDataset(header);
+		}
+	}
+}
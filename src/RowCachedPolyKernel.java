@@ -0,0 +1,257 @@
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import weka.classifiers.functions.supportVector.PolyKernel;
+import weka.core.Instance;
+import weka.core.Instances;
+
+//A PolyKernel that caches whole kernel rows instead of single values. When SMO asks for a value
+//whose row (or, by symmetry, column) is not cached, the full row is computed into a flat double[]
+//on all cores and replaces the least recently used row. Values are computed exactly the way
+//PolyKernel computes them, so SMO builds the same model.
+//
+//SMO trains a copy of the kernel for every pair of classes, so each copy adds its counts to one
+//Statistics shared with the kernel it was copied from; getStatistics() on the kernel given to
+//SMO covers the whole training. The counts are added as the kernel is evaluated, since SMO only
+//calls clean() on some of its kernels (never for a linear kernel, which it drops).
+public class RowCachedPolyKernel extends PolyKernel {
+	private static final long serialVersionUID = 1L;
+	private static final int PARALLEL_ROW_LENGTH = 8192; //Shorter rows are computed on the calling thread.
+	private static final int CHUNK_LENGTH = 2048;
+	
+	private final long cacheBytes;
+	private final Statistics statistics = new Statistics();
+	
+	//Only set between buildKernel and clean, i.e. while SMO trains.
+	private transient double[] values; //The training data, numColumns values per row, class left out.
+	private transient int numColumns;
+	private transient RowCache cache;
+	
+	public RowCachedPolyKernel(double exponent, long cacheBytes) {
+		setExponent(exponent);
+		setCacheSize(1); //PolyKernel's own cache is bypassed.
+		this.cacheBytes = cacheBytes;
+	}
+	
+	@Override
+	public void buildKernel(Instances data) throws Exception {
+		super.buildKernel(data);
+		
+		int classIndex = data.classIndex();
+		int numRows = data.numInstances();
+		numColumns = classIndex >= 0 ? data.numAttributes() - 1 : data.numAttributes();
+		values = new double[numRows * numColumns];
+		for (int i = 0; i < numRows; i++) {
+			Instance instance = data.instance(i);
+			for (int a = 0, c = 0; a < data.numAttributes(); a++) {
+				if (a != classIndex)
+					values[i * numColumns + c++] = instance.value(a);
+			}
+		}
+		
+		int rowCapacity = (int) Math.max(2, Math.min(numRows, cacheBytes / (8L * Math.max(1, numRows))));
+		cache = new RowCache(numRows, rowCapacity);
+	}
+	
+	@Override
+	public double eval(int id1, int id2, Instance inst1) throws Exception {
+		//id1 is -1 when SMO classifies a new instance.
+		if (id1 < 0 || cache == null)
+			return evaluate(id1, id2, inst1);
+		
+		statistics.evaluations.increment();
+		int slot = cache.find(id1);
+		int column = id2;
+		if (slot < 0) {
+			slot = cache.find(id2);
+			column = id1;
+		}
+		if (slot >= 0) {
+			statistics.hits.increment();
+		} else {
+			slot = cache.replaceLeastRecentlyUsed(id1);
+			computeRow(id1, slot);
+			column = id2;
+		}
+		return cache.storage[slot * cache.rowLength + column];
+	}
+	
+	@Override
+	public void clean() {
+		super.clean();
+		cache = null;
+		values = null;
+	}
+	
+	public Statistics getStatistics() {
+		return statistics;
+	}
+	
+	private void computeRow(final int row, int slot) {
+		long startTime = System.nanoTime();
+		final double[] storage = cache.storage;
+		final int rowLength = cache.rowLength;
+		final int offset = slot * rowLength;
+		if (rowLength < PARALLEL_ROW_LENGTH) {
+			computeColumns(row, storage, offset, 0, rowLength);
+		} else {
+			IntStream.range(0, (rowLength + CHUNK_LENGTH - 1) / CHUNK_LENGTH).parallel().forEach(chunk ->
+				computeColumns(row, storage, offset, chunk * CHUNK_LENGTH, Math.min(rowLength, (chunk + 1) * CHUNK_LENGTH)));
+		}
+		statistics.rowsComputed.increment();
+		statistics.rowTime.add(System.nanoTime() - startTime);
+	}
+	
+	//Same sums in the same order as PolyKernel's dotProd, then the same lower order term and power.
+	private void computeColumns(int row, double[] storage, int offset, int from, int to) {
+		double exponent = getExponent();
+		boolean lowerOrder = getUseLowerOrder();
+		int rowStart = row * numColumns;
+		for (int j = from; j < to; j++) {
+			int columnStart = j * numColumns;
+			double result = 0;
+			for (int c = 0; c < numColumns; c++)
+				result += values[rowStart + c] * values[columnStart + c];
+			if (lowerOrder)
+				result += 1.0;
+			if (exponent != 1.0)
+				result = Math.pow(result, exponent);
+			storage[offset + j] = result;
+		}
+	}
+	
+	//Kernel rows in one flat array, with a least recently used list of the row slots kept in int
+	//arrays.
+	private static class RowCache {
+		private final int rowLength;
+		private final double[] storage;
+		private final int[] slotOfRow; //-1 when the row is not cached.
+		private final int[] rowOfSlot;
+		private final int[] previous; //Towards the most recently used slot.
+		private final int[] next; //Towards the least recently used slot.
+		private int head = -1, tail = -1;
+		private int usedSlots;
+		
+		RowCache(int rowLength, int capacity) {
+			this.rowLength = rowLength;
+			storage = new double[rowLength * capacity];
+			slotOfRow = new int[rowLength];
+			Arrays.fill(slotOfRow, -1);
+			rowOfSlot = new int[capacity];
+			previous = new int[capacity];
+			next = new int[capacity];
+		}
+		
+		//Returns the slot holding the row and marks it most recently used, or -1.
+		int find(int row) {
+			int slot = slotOfRow[row];
+			if (slot >= 0 && slot != head) {
+				unlink(slot);
+				pushFront(slot);
+			}
+			return slot;
+		}
+		
+		//Gives the row a slot, taking it from the least recently used row once the cache is full.
+		//The caller fills in the values.
+		int replaceLeastRecentlyUsed(int row) {
+			int slot;
+			if (usedSlots < rowOfSlot.length) {
+				slot = usedSlots++;
+			} else {
+				slot = tail;
+				unlink(slot);
+				slotOfRow[rowOfSlot[slot]] = -1;
+			}
+			rowOfSlot[slot] = row;
+			slotOfRow[row] = slot;
+			pushFront(slot);
+			return slot;
+		}
+		
+		private void unlink(int slot) {
+			if (previous[slot] >= 0)
+				next[previous[slot]] = next[slot];
+			else
+				head = next[slot];
+			if (next[slot] >= 0)
+				previous[next[slot]] = previous[slot];
+			else
+				tail = previous[slot];
+		}
+		
+		private void pushFront(int slot) {
+			previous[slot] = -1;
+			next[slot] = head;
+			if (head >= 0)
+				previous[head] = slot;
+			head = slot;
+			if (tail < 0)
+				tail = slot;
+		}
+	}
+	
+	//Totals over a kernel and every copy made of it. Kernel.makeCopy copies by serialization, so a
+	//deserialized Statistics resolves to the live one with the same id, if there is one. The live
+	//ones are only weakly registered, so they go away with their kernels.
+	public static class Statistics implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private static final Map<String, Registration> LIVE = new HashMap<String, Registration>();
+		private static final ReferenceQueue<Statistics> CLEARED = new ReferenceQueue<Statistics>();
+		
+		private final String id = UUID.randomUUID().toString();
+		private final LongAdder evaluations = new LongAdder();
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder rowsComputed = new LongAdder();
+		private final LongAdder rowTime = new LongAdder();
+		
+		private Statistics() {
+			register(this);
+		}
+		
+		private Object readResolve() {
+			synchronized (LIVE) {
+				Registration registration = LIVE.get(id);
+				Statistics live = registration == null ? null : registration.get();
+				if (live != null)
+					return live;
+				register(this);
+				return this;
+			}
+		}
+		
+		private static void register(Statistics statistics) {
+			synchronized (LIVE) {
+				for (Registration cleared; (cleared = (Registration) CLEARED.poll()) != null; )
+					LIVE.remove(cleared.id, cleared);
+				LIVE.put(statistics.id, new Registration(statistics));
+			}
+		}
+		
+		public double hitRate() {
+			return (double) hits.sum() / Math.max(1, evaluations.sum());
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%.1f%% kernel cache hit rate (%d of %d evaluations), %d rows computed in %.3f s",
+					100 * hitRate(), hits.sum(), evaluations.sum(), rowsComputed.sum(), rowTime.sum() / 1000000000.0);
+		}
+		
+		private static class Registration extends WeakReference<Statistics> {
+			private final String id;
+			
+			Registration(Statistics statistics) {
+				super(statistics, CLEARED);
+				id = statistics.id;
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//Collects where the time and memory of one run goes, phase by phase. A phase is measured on the
+//thread that runs it: wall time, that thread's CPU time and allocated bytes, plus the CPU time of
+//the whole process and the GC count and time, which also cover any worker threads the phase
+//starts. The thread_ columns leave out those workers, so for parallel phases (generation,
+//training, evaluation, cross-validation) compare process_cpu_ms and the GC columns instead.
+//Phases can be measured from several threads at once.
+public class RunMetrics {
+	private static final com.sun.management.ThreadMXBean threadBean =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final com.sun.management.OperatingSystemMXBean osBean =
+			(com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+	
+	private static final String[] COLUMNS = { "run", "phase", "wall_ms", "thread_cpu_ms",
+		"process_cpu_ms", "thread_allocated_bytes", "gc_count", "gc_ms" };
+	
+	private final int run;
+	private final List<long[]> measurements = new ArrayList<long[]>();
+	private final List<String> phaseNames = new ArrayList<String>();
+	
+	public RunMetrics(int run) {
+		this.run = run;
+	}
+	
+	public Phase start(String name) {
+		return new Phase(name);
+	}
+	
+	//Appends this run's phases to a CSV file, writing the header first if the file is new. The
+	//settings become extra leading columns, so runs with different dataset sizes and
+	//hyperparameters can be told apart. A file whose header has other columns (written before
+	//a setting was added) is renamed to <name>.1, <name>.2, ... and a new one started, so no
+	//row ever ends up under the wrong column.
+	public synchronized void appendCsv(File file, Map<String, Object> settings) throws IOException {
+		StringBuilder headerLine = new StringBuilder();
+		for (String setting : settings.keySet())
+			headerLine.append(setting).append(',');
+		headerLine.append(String.join(",", COLUMNS));
+		String header = headerLine.toString();
+		
+		if (file.exists() && file.length() > 0 && !header.equals(firstLine(file)))
+			rotate(file);
+		boolean newFile = !file.exists() || file.length() == 0;
+		BufferedWriter bufferedWriter = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file, true)));
+		try {
+			if (newFile) {
+				bufferedWriter.write(header);
+				bufferedWriter.newLine();
+			}
+			
+			for (int i = 0; i < measurements.size(); i++) {
+				StringBuilder line = new StringBuilder();
+				for (Object value : settings.values())
+					line.append(value).append(',');
+				line.append(run).append(',').append(phaseNames.get(i));
+				long[] measurement = measurements.get(i);
+				line.append(',').append(measurement[0] / 1000000.0);
+				line.append(',').append(measurement[1] / 1000000.0);
+				line.append(',').append(measurement[2] / 1000000.0);
+				line.append(',').append(measurement[3]);
+				line.append(',').append(measurement[4]);
+				line.append(',').append(measurement[5]);
+				bufferedWriter.write(line.toString());
+				bufferedWriter.newLine();
+			}
+		} finally {
+			bufferedWriter.close();
+		}
+	}
+	
+	private static String firstLine(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			return reader.readLine();
+		} finally {
+			reader.close();
+		}
+	}
+	
+	private static void rotate(File file) throws IOException {
+		File rotated;
+		int n = 1;
+		do {
+			rotated = new File(file.getPath() + "." + n++);
+		} while (rotated.exists());
+		if (!file.renameTo(rotated))
+			throw new IOException("Could not move " + file.getName() + " out of the way of its new columns");
+		System.out.println("Moved " + file.getName() + " to " + rotated.getName() + " since its columns changed");
+	}
+	
+	private synchronized void record(String name, long[] measurement) {
+		phaseNames.add(name.replace(',', ' '));
+		measurements.add(measurement);
+	}
+	
+	private static long[] gcTotals() {
+		long count = 0;
+		long time = 0;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gcBean.getCollectionCount());
+			time += Math.max(0, gcBean.getCollectionTime());
+		}
+		return new long[] { count, time };
+	}
+	
+	//A phase that has been started and not yet ended. Must be ended on the thread that started it.
+	public class Phase {
+		private final String name;
+		private final long threadId = Thread.currentThread().getId();
+		private final long startTime;
+		private final long startThreadCpuTime;
+		private final long startProcessCpuTime;
+		private final long startAllocatedBytes;
+		private final long[] startGcTotals;
+		
+		private Phase(String name) {
+			this.name = name;
+			startGcTotals = gcTotals();
+			startAllocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+			startProcessCpuTime = osBean.getProcessCpuTime();
+			startThreadCpuTime = threadBean.getCurrentThreadCpuTime();
+			startTime = System.nanoTime();
+		}
+		
+		public void end() {
+			long wallTime = System.nanoTime() - startTime;
+			long threadCpuTime = threadBean.getCurrentThreadCpuTime() - startThreadCpuTime;
+			long processCpuTime = osBean.getProcessCpuTime() - startProcessCpuTime;
+			long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startAllocatedBytes;
+			long[] endGcTotals = gcTotals();
+			record(name, new long[] { wallTime, threadCpuTime, processCpuTime, allocatedBytes,
+					endGcTotals[0] - startGcTotals[0], endGcTotals[1] - startGcTotals[1] });
+		}
+	}
+}
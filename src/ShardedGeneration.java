@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+//Helpers shared by the ARFF generators for writing a file as independent shards. Each shard
+//gets its own SplittableRandom split off a seeded root in shard order, so the output only
+//depends on the seed and the shard count, not on how the threads get scheduled.
+public class ShardedGeneration {
+	public static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	//Writes the rows for one shard.
+	public interface Shard {
+		void write(ARFFWriter writer) throws IOException;
+	}
+	
+	//Fills the rows for one shard of an in-memory dataset.
+	public interface RowShard {
+		void fill(int shard);
+	}
+	
+	//Returns one random stream per shard, all split off a root seeded with the given seed.
+	public static SplittableRandom[] splitStreams(long seed, int numShards) {
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom[] streams = new SplittableRandom[numShards];
+		for (int i = 0; i < numShards; i++)
+			streams[i] = root.split();
+		return streams;
+	}
+	
+	//SplittableRandom has no nextGaussian() before Java 17, so use the polar method.
+	public static double nextGaussian(SplittableRandom rand) {
+		double v1, v2, s;
+		do {
+			v1 = 2 * rand.nextDouble() - 1;
+			v2 = 2 * rand.nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		return v1 * Math.sqrt(-2 * Math.log(s) / s);
+	}
+	
+	//Runs every shard across all cores and waits for them to finish.
+	public static void fillShards(int numShards, RowShard shard) {
+		IntStream.range(0, numShards).parallel().forEach(shard::fill);
+	}
+	
+	//Writes every shard to its own temporary file across all cores, then stitches the header
+	//and the shards together, in order, into the final file.
+	public static void writeShards(File file, String header, List<Shard> shards) throws IOException {
+		File[] parts = new File[shards.size()];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(NUM_THREADS, shards.size()));
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < shards.size(); i++) {
+				final Shard shard = shards.get(i);
+				final File part = File.createTempFile(file.getName() + ".shard" + i + ".", ".tmp",
+						file.getAbsoluteFile().getParentFile());
+				parts[i] = part;
+				futures.add(executor.submit(() -> {
+					ARFFWriter writer = new ARFFWriter(part);
+					try {
+						shard.write(writer);
+					} finally {
+						writer.close();
+					}
+					return null;
+				}));
+			}
+			
+			for (Future<?> future : futures)
+				future.get();
+			
+			ARFFWriter headerWriter = new ARFFWriter(file);
+			headerWriter.write(ARFFWriter.encode(header));
+			headerWriter.close();
+			
+			FileOutputStream outputStream = new FileOutputStream(file, true);
+			try {
+				FileChannel out = outputStream.getChannel();
+				for (File part : parts) {
+					FileInputStream inputStream = new FileInputStream(part);
+					try {
+						FileChannel in = inputStream.getChannel();
+						long position = 0;
+						long size = in.size();
+						while (position < size)
+							position += in.transferTo(position, size - position, out);
+					} finally {
+						inputStream.close();
+					}
+				}
+			} finally {
+				outputStream.close();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing " + file.getName(), e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to write a shard of " + file.getName(), e.getCause());
+		} finally {
+			executor.shutdownNow();
+			for (File part : parts)
+				if (part != null)
+					part.delete();
+		}
+	}
+}
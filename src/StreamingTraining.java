@@ -0,0 +1,41 @@
+import java.io.File;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+//Trains and tests updateable classifiers straight from the .arff files, one row at a time, so 
+//neither dataset is ever held in memory. Peak memory only depends on the classifier (e.g. the 
+//window size of IBk), not on how many rows were generated.
+public class StreamingTraining {
+	public static <T extends Classifier & UpdateableClassifier> void train(T classifier, File trainingFile) 
+	throws Exception {
+		ArffLoader loader = new ArffLoader();
+		loader.setFile(trainingFile);
+		Instances structure = loader.getStructure();
+		structure.setClassIndex(structure.numAttributes() - 1);
+		
+		classifier.buildClassifier(structure);
+		Instance instance;
+		while ((instance = loader.getNextInstance(structure)) != null)
+			classifier.updateClassifier(instance);
+	}
+	
+	//Predictions are not kept, so only the running statistics take up memory.
+	public static Evaluation evaluate(Classifier classifier, File testFile) throws Exception {
+		ArffLoader loader = new ArffLoader();
+		loader.setFile(testFile);
+		Instances structure = loader.getStructure();
+		structure.setClassIndex(structure.numAttributes() - 1);
+		
+		Evaluation evaluation = new Evaluation(structure);
+		evaluation.setDiscardPredictions(true);
+		Instance instance;
+		while ((instance = loader.getNextInstance(structure)) != null)
+			evaluation.evaluateModelOnce(classifier, instance);
+		return evaluation;
+	}
+}
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+//Builds several classifiers at once on a bounded thread pool. The training datasets can be 
+//shared between tasks because Weka's classifiers copy their training data before changing it.
+//
+//With a sequential baseline, untrained copies of the classifiers are kept, and once every task
+//is done they are trained again one after another, which gives the real speedup of training
+//them at once: the sequential wall time over the parallel one. The baseline runs on a JVM the
+//parallel training has just warmed up, so the first run of a process favours it; compare later
+//runs. It can't be used with a model cache, which would skip training on one side only.
+public class TrainingScheduler {
+	private final ExecutorService executor;
+	private final RunMetrics metrics;
+	private final boolean sequentialBaseline;
+	private final List<String> taskNames = new ArrayList<String>();
+	private final List<Future<Long>> tasks = new ArrayList<Future<Long>>();
+	private final List<Classifier> baselineClassifiers = new ArrayList<Classifier>();
+	private final List<Instances> baselineData = new ArrayList<Instances>();
+	private final long startTime = System.nanoTime();
+	
+	//Every task is also recorded as a "train <name>" phase in the given metrics, and the
+	//sequential baseline, if any, as one "sequential training baseline" phase.
+	public TrainingScheduler(int numThreads, RunMetrics metrics, boolean sequentialBaseline) {
+		executor = Executors.newFixedThreadPool(numThreads);
+		this.metrics = metrics;
+		this.sequentialBaseline = sequentialBaseline;
+	}
+	
+	//Queues classifier.buildClassifier(data). The task's result is its wall time in nanoseconds.
+	public void submit(final String name, final Classifier classifier, final Instances data) {
+		taskNames.add(name);
+		if (sequentialBaseline) {
+			//Copied before the task can start.
+			try {
+				baselineClassifiers.add(AbstractClassifier.makeCopy(classifier));
+			} catch (Exception e) {
+				e.printStackTrace();
+				baselineClassifiers.add(null);
+			}
+			baselineData.add(data);
+		}
+		tasks.add(executor.submit(() -> {
+			RunMetrics.Phase phase = metrics.start("train " + name);
+			long taskStartTime = System.nanoTime();
+			classifier.buildClassifier(data);
+			long taskTime = System.nanoTime() - taskStartTime;
+			phase.end();
+			return taskTime;
+		}));
+	}
+	
+	//Waits for every task, then prints each task's wall time and the summed task time over the 
+	//wall time. The task times are measured while the tasks compete for cores, so that ratio 
+	//overstates the speedup over really running them one after another; the sequential baseline,
+	//when on, runs them that way and prints the real one.
+	public void awaitAll() {
+		long totalTaskTime = 0;
+		for (int i = 0; i < tasks.size(); i++) {
+			try {
+				long taskTime = tasks.get(i).get();
+				totalTaskTime += taskTime;
+				System.out.println("Trained " + taskNames.get(i) + " in " + taskTime / 1000000000.0 + "s");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				System.out.println("Failed to train " + taskNames.get(i));
+				e.getCause().printStackTrace();
+			}
+		}
+		executor.shutdown();
+		
+		long wallTime = System.nanoTime() - startTime;
+		System.out.println("Training wall time: " + wallTime / 1000000000.0 + "s, summed task time: " 
+				+ totalTaskTime / 1000000000.0 + "s, summed task time / wall time: " + (double) totalTaskTime / wallTime);
+		if (sequentialBaseline)
+			runSequentialBaseline(wallTime);
+		System.out.println();
+	}
+	
+	private void runSequentialBaseline(long parallelWallTime) {
+		RunMetrics.Phase phase = metrics.start("sequential training baseline");
+		long baselineStartTime = System.nanoTime();
+		for (int i = 0; i < baselineClassifiers.size(); i++) {
+			if (baselineClassifiers.get(i) == null)
+				continue;
+			try {
+				baselineClassifiers.get(i).buildClassifier(baselineData.get(i));
+			} catch (Exception e) {
+				System.out.println("Failed to train " + taskNames.get(i) + " for the sequential baseline");
+				e.printStackTrace();
+			}
+			baselineClassifiers.set(i, null);
+		}
+		long sequentialWallTime = System.nanoTime() - baselineStartTime;
+		phase.end();
+		System.out.println("Sequential training wall time: " + sequentialWallTime / 1000000000.0 
+				+ "s, speedup of parallel training: " + (double) sequentialWallTime / parallelWallTime);
+	}
+}
@@ -0,0 +1,78 @@
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.meta.AdaBoostM1;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+//Compares the histogram tree learners with the Weka ones they stand in for, on generated data of
+//growing size: J48 against HistogramTree, RandomForest against HistogramForest (5 trees of depth
+//3, as in Main's boosting), and Main's AdaBoostM1 over each forest. Prints build time and test
+//set accuracy.
+//
+//Usage: java TreeBenchmark [training rows...]  (defaults to 10^4 10^5 10^6)
+public class TreeBenchmark {
+	private static final long SEED = 7641;
+	private static final int BOOSTING_ITERATIONS = 10; //Fewer than Main, so the largest size stays quick.
+	
+	public static void main(String[] args) throws Exception {
+		int[] sizes = { 10000, 100000, 1000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		
+		System.out.println(String.format("%-22s %10s %-28s %10s %10s",
+				"dataset", "rows", "classifier", "build ms", "accuracy"));
+		for (int size : sizes) {
+			Instances[] customers = CustomerSatisfactionARFFGenerator.generateInstances(size, SEED);
+			compare("customer satisfaction", customers[0], customers[1]);
+			customers = null;
+			
+			Instances[] pokemon = PokemonARFFGenerator.generateInstances(Math.max(1, size / 34), SEED);
+			compare("pokemon", pokemon[0], pokemon[1]);
+		}
+	}
+	
+	private static void compare(String dataSetName, Instances training, Instances test) throws Exception {
+		run(dataSetName, training, test, "J48", Main.createDecisionTree());
+		run(dataSetName, training, test, "HistogramTree", Main.createHistogramTree());
+		run(dataSetName, training, test, "RandomForest", randomForest());
+		run(dataSetName, training, test, "HistogramForest", histogramForest());
+		run(dataSetName, training, test, "AdaBoostM1(RandomForest)", boosting(randomForest()));
+		run(dataSetName, training, test, "AdaBoostM1(HistogramForest)", boosting(histogramForest()));
+	}
+	
+	private static RandomForest randomForest() {
+		RandomForest randomForest = new RandomForest();
+		randomForest.setNumIterations(5);
+		randomForest.setMaxDepth(3);
+		return randomForest;
+	}
+	
+	private static HistogramForest histogramForest() {
+		HistogramForest histogramForest = new HistogramForest();
+		histogramForest.setNumIterations(5);
+		histogramForest.setMaxDepth(3);
+		return histogramForest;
+	}
+	
+	private static AdaBoostM1 boosting(Classifier forest) {
+		AdaBoostM1 boosting = Main.createBoosting();
+		boosting.setNumIterations(BOOSTING_ITERATIONS);
+		boosting.setClassifier(forest);
+		return boosting;
+	}
+	
+	private static void run(String dataSetName, Instances training, Instances test, String classifierName,
+	Classifier classifier) throws Exception {
+		long startTime = System.nanoTime();
+		classifier.buildClassifier(training);
+		long buildTime = System.nanoTime() - startTime;
+		
+		Evaluation evaluation = new Evaluation(training);
+		evaluation.evaluateModel(classifier, test);
+		System.out.println(String.format("%-22s %10d %-28s %10.1f %9.2f%%", dataSetName, training.numInstances(),
+				classifierName, buildTime / 1000000.0, 100.0 * evaluation.correct() / evaluation.numInstances()));
+	}
+}